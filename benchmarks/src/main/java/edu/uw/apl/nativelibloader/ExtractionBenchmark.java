@@ -0,0 +1,163 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The cold path: extraction of a library payload from a jar to a
+ * file, for payloads from 1 KB to 500 MB, stored or deflated.  Each
+ * invocation writes a new file, so the page cache holds the source
+ * (as it would after the first of many VM starts) but not the
+ * target.  The payload is random nibbles, so deflates about 2:1,
+ * much like real shared objects do.
+ *
+ * The jar is built once per trial, in java.io.tmpdir, so expect the
+ * 500 MB trials to need a few GB free there.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+public class ExtractionBenchmark {
+
+	@Param( { "1024", "1048576", "16777216", "524288000" } )
+	public long size;
+
+	@Param( { "stored", "deflated" } )
+	public String method;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException {
+		dir = File.createTempFile( "nativeloader-bench", "" );
+		dir.delete();
+		dir.mkdirs();
+		File jar = new File( dir, "payload.jar" );
+		writeJar( jar, size, "stored".equals( method ) );
+		url = new URL( "jar:" + jar.toURI() + "!/" + ENTRY );
+	}
+
+	@Setup( Level.Invocation )
+	public void target() {
+		target = new File( dir, "libpayload-" + (count++) + ".so" );
+	}
+
+	@TearDown( Level.Invocation )
+	public void clean() {
+		target.delete();
+	}
+
+	@TearDown( Level.Trial )
+	public void teardown() throws IOException {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	@Benchmark
+	public long extract() throws IOException {
+		return Extractor.extract( url, target, null );
+	}
+
+	static void writeJar( File jar, long size, boolean stored )
+		throws IOException {
+		byte[] block = new byte[1024*1024];
+		Random r = new Random( 42 );
+		for( int i = 0; i < block.length; i++ )
+			block[i] = (byte)r.nextInt( 16 );
+		ZipOutputStream zos = new ZipOutputStream
+			( new FileOutputStream( jar ) );
+		try {
+			ZipEntry ze = new ZipEntry( ENTRY );
+			if( stored ) {
+				// Stored entries need size and crc up front
+				CRC32 crc = new CRC32();
+				for( long n = 0; n < size; n += block.length )
+					crc.update( block, 0, (int)Math.min
+								( block.length, size - n ) );
+				ze.setMethod( ZipEntry.STORED );
+				ze.setSize( size );
+				ze.setCompressedSize( size );
+				ze.setCrc( crc.getValue() );
+			}
+			zos.putNextEntry( ze );
+			write( zos, block, size );
+			zos.closeEntry();
+		} finally {
+			zos.close();
+		}
+	}
+
+	static private void write( OutputStream os, byte[] block, long size )
+		throws IOException {
+		for( long n = 0; n < size; n += block.length )
+			os.write( block, 0, (int)Math.min( block.length, size - n ) );
+	}
+
+	static final String ENTRY = "bench/native/payload.so";
+
+	private File dir, target;
+	private URL url;
+	private int count;
+}
+
+// eof
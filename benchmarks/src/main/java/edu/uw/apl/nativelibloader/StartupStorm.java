@@ -0,0 +1,270 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The 'startup storm': N JVMs, started together on one host, each
+ * loading the same library through NativeLoader at the same moment.
+ * That is where tmpdir clutter, extraction races and lock contention
+ * show, and where no single-VM JMH benchmark can look.  Run as
+ *
+ * java -cp target/benchmarks.jar edu.uw.apl.nativelibloader.StartupStorm
+ *  [-n VMS] [-tmpdir DIR] [-lib PREFIX:LIBNAME] [-- CHILD VM ARGS]
+ *
+ * e.g. with '-- -Dbench.cache=true' to compare the extraction cache
+ * against per-process extraction.  Each child starts, signals ready,
+ * then waits for the parent's go, sent only once all are ready, so
+ * that JVM startup itself is not what is measured.  Reported: p50,
+ * p99 and max of the children's load latencies (first load, so
+ * including loader class initialization), total bytes they wrote
+ * (so cache hits count nothing), and the files left in the tmpdir
+ * after all have exited.  The tmpdir is a fresh one per run unless
+ * named.
+ */
+public class StartupStorm {
+
+	static public void main( String[] args ) throws Exception {
+		if( args.length > 0 && args[0].equals( CHILD ) ) {
+			child( args[1], args[2] );
+			return;
+		}
+		int n = 2 * Runtime.getRuntime().availableProcessors();
+		File tmpDir = null;
+		String prefix = WarmLoadBenchmark.PREFIX;
+		String libName = WarmLoadBenchmark.LIBNAME;
+		List<String> vmArgs = new ArrayList<String>();
+		for( int i = 0; i < args.length; i++ ) {
+			String arg = args[i];
+			if( arg.equals( "-n" ) && i+1 < args.length ) {
+				n = Integer.parseInt( args[++i] );
+			} else if( arg.equals( "-tmpdir" ) && i+1 < args.length ) {
+				tmpDir = new File( args[++i] );
+			} else if( arg.equals( "-lib" ) && i+1 < args.length ) {
+				String[] pl = args[++i].split( ":", 2 );
+				if( pl.length != 2 )
+					usage();
+				prefix = pl[0];
+				libName = pl[1];
+			} else if( arg.equals( "--" ) ) {
+				vmArgs.addAll( Arrays.asList( args ).
+							   subList( i+1, args.length ) );
+				break;
+			} else {
+				usage();
+			}
+		}
+		if( tmpDir == null )
+			tmpDir = new File( System.getProperty( "java.io.tmpdir" ),
+							   "storm-" + UUID.randomUUID() );
+		tmpDir.mkdirs();
+		Result r = storm( n, tmpDir, prefix, libName, vmArgs );
+		System.out.println( r );
+	}
+
+	static private void usage() {
+		System.err.println
+			( "Usage: StartupStorm [-n VMS] [-tmpdir DIR]" +
+			  " [-lib PREFIX:LIBNAME] [-- CHILD VM ARGS]" );
+		System.exit( 1 );
+	}
+
+	static public class Result {
+		int vms, failed;
+		long p50, p99, max;
+		long bytes;
+		int filesBefore, filesAfter;
+
+		@Override
+		public String toString() {
+			return String.format
+				( "vms: %d (failed %d)%n" +
+				  "load latency ms: p50 %.2f, p99 %.2f, max %.2f%n" +
+				  "bytes written: %d%n" +
+				  "tmp files left: %d (of which %d pre-existing)",
+				  vms, failed, p50 / 1e6, p99 / 1e6, max / 1e6,
+				  bytes, filesAfter, filesBefore );
+		}
+	}
+
+	static public Result storm( int n, File tmpDir, String prefix,
+								String libName, List<String> vmArgs )
+		throws IOException, InterruptedException {
+
+		Result r = new Result();
+		r.vms = n;
+		r.filesBefore = count( tmpDir );
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add( new File( System.getProperty( "java.home" ),
+						   "bin/java" ).getPath() );
+		cmd.add( "-Djava.io.tmpdir=" + tmpDir.getPath() );
+		cmd.addAll( vmArgs );
+		cmd.add( "-cp" );
+		cmd.add( System.getProperty( "java.class.path" ) );
+		cmd.add( StartupStorm.class.getName() );
+		cmd.add( CHILD );
+		cmd.add( prefix );
+		cmd.add( libName );
+
+		List<Process> ps = new ArrayList<Process>();
+		List<BufferedReader> outs = new ArrayList<BufferedReader>();
+		try {
+			for( int i = 0; i < n; i++ ) {
+				Process p = new ProcessBuilder( cmd ).
+					redirectError( ProcessBuilder.Redirect.INHERIT ).
+					start();
+				ps.add( p );
+				outs.add( new BufferedReader
+						  ( new InputStreamReader
+							( p.getInputStream(),
+							  StandardCharsets.UTF_8 ) ) );
+			}
+			for( BufferedReader br : outs ) {
+				String line = br.readLine();
+				if( !READY.equals( line ) )
+					throw new IOException( "Child not ready: " + line );
+			}
+			// All ready, now the storm...
+			for( Process p : ps ) {
+				OutputStream os = p.getOutputStream();
+				os.write( '\n' );
+				os.flush();
+			}
+			List<Long> nanos = new ArrayList<Long>();
+			for( int i = 0; i < n; i++ ) {
+				String line = outs.get(i).readLine();
+				ps.get(i).waitFor();
+				String[] fields = line == null ? new String[0] :
+					line.trim().split( "\\s+" );
+				if( fields.length != 2 || ps.get(i).exitValue() != 0 ) {
+					r.failed++;
+					continue;
+				}
+				nanos.add( Long.parseLong( fields[0] ) );
+				r.bytes += Long.parseLong( fields[1] );
+			}
+			Collections.sort( nanos );
+			r.p50 = percentile( nanos, 50 );
+			r.p99 = percentile( nanos, 99 );
+			r.max = nanos.isEmpty() ? 0 : nanos.get( nanos.size()-1 );
+		} finally {
+			for( Process p : ps )
+				p.destroy();
+		}
+		r.filesAfter = count( tmpDir );
+		return r;
+	}
+
+	// Nearest-rank, of sorted values
+	static long percentile( List<Long> sorted, int p ) {
+		if( sorted.isEmpty() )
+			return 0;
+		int rank = (int)Math.ceil( p / 100.0 * sorted.size() );
+		return sorted.get( Math.max( rank, 1 ) - 1 );
+	}
+
+	// Regular files, at any depth, dotfiles (locks, leases) included
+	static int count( File dir ) throws IOException {
+		if( !dir.isDirectory() )
+			return 0;
+		try( java.util.stream.Stream<java.nio.file.Path> s =
+			 Files.walk( dir.toPath() ) ) {
+			return (int)s.filter( Files::isRegularFile ).count();
+		}
+	}
+
+	/*
+	  In each child: signal ready, wait for go, load, then report the
+	  latency and bytes extracted as 'NANOS BYTES'.
+	*/
+	static private void child( String prefix, String libName )
+		throws IOException {
+		System.out.println( READY );
+		System.out.flush();
+		System.in.read();
+		long written = wchar();
+		long start = System.nanoTime();
+		NativeLoader.load( prefix, libName );
+		long nanos = System.nanoTime() - start;
+		written = wchar() - written;
+		if( written < 0 ) {
+			// No /proc, so the best we have: the bytes materialized
+			LoadTimings t = NativeLoader.library( prefix, libName ).timings;
+			written = t == null ? 0 : t.bytes;
+		}
+		System.out.println( nanos + " " + written );
+		System.out.flush();
+	}
+
+	/*
+	  Bytes this process has passed to write(2) and kin, per the
+	  'wchar' line of /proc/self/io.  So cache hits, hard links and
+	  renames count as nothing written, as they should.  -1 if
+	  unavailable.
+	*/
+	static long wchar() {
+		try {
+			for( String line : Files.readAllLines
+					 ( new File( "/proc/self/io" ).toPath(),
+					   StandardCharsets.UTF_8 ) ) {
+				if( line.startsWith( "wchar:" ) )
+					return Long.parseLong( line.substring(6).trim() );
+			}
+		} catch( IOException | NumberFormatException e ) {
+		}
+		return -1;
+	}
+
+	static private final String CHILD = "child";
+	static private final String READY = "ready";
+}
+
+// eof
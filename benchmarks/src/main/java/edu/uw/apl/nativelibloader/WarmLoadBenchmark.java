@@ -0,0 +1,98 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The warm path: load() of a library already loaded, which is what
+ * every call after the first costs.  Run at increasing thread counts,
+ * to show whether callers contend.  The library is the real (if tiny)
+ * libtiny.so, built from src/main/native.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Fork( 1 )
+public class WarmLoadBenchmark {
+
+	@Setup
+	public void setup() throws IOException {
+		NativeLoader.load( PREFIX, LIBNAME );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void load1() throws IOException {
+		NativeLoader.load( PREFIX, LIBNAME );
+	}
+
+	@Benchmark
+	@Threads( 4 )
+	public void load4() throws IOException {
+		NativeLoader.load( PREFIX, LIBNAME );
+	}
+
+	@Benchmark
+	@Threads( Threads.MAX )
+	public void loadMax() throws IOException {
+		NativeLoader.load( PREFIX, LIBNAME );
+	}
+
+	@Benchmark
+	@Threads( 1 )
+	public void loadByClass1() throws IOException {
+		NativeLoader.load( WarmLoadBenchmark.class, LIBNAME );
+	}
+
+	static final String PREFIX = "bench";
+	static final String LIBNAME = "tiny";
+}
+
+// eof
@@ -0,0 +1,10 @@
+/*
+  A minimal shared object for the NativeLoader benchmarks: the cost
+  we measure is the loader's, not that of any code in here.
+*/
+
+int nativelibloader_bench_tiny( void ) {
+	return 42;
+}
+
+// eof
@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package greetings;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Stuart Maclean
+ *
+ * What the JNI boundary costs, per call, once a library is loaded by
+ * NativeLoader, for the common patterns:
+ *
+ * - no args, and primitive args, bound by symbol name vs by
+ *   RegisterNatives, against a pure Java baseline,
+ *
+ * - passing arrays, via Get/ReleasePrimitiveArrayCritical (no copy,
+ *   but GC held off) vs GetIntArrayRegion (a copy), and a direct
+ *   ByteBuffer (no copy, no GC interaction), at several sizes,
+ *
+ * - work on many elements done per-element, one call each, vs
+ *   batched into one call.  Reported per element, as is the batched
+ *   call, via @OperationsPerInvocation.
+ *
+ * All in ns/call (ns/element for the per/batched pair).  Only the
+ * array and buffer benchmarks take the size parameter, it being a
+ * parameter of their own state, Sized.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class CallBenchmark {
+
+	@State( Scope.Thread )
+	static public class Sized {
+
+		@Param( { "16", "1024", "65536" } )
+		public int size;
+
+		@Setup
+		public void setup() {
+			array = new int[size];
+			direct = ByteBuffer.allocateDirect( size * 4 ).
+				order( ByteOrder.nativeOrder() );
+			for( int i = 0; i < size; i++ ) {
+				array[i] = i;
+				direct.putInt( i * 4, i );
+			}
+		}
+
+		int[] array;
+		ByteBuffer direct;
+	}
+
+	@Setup
+	public void setup() {
+		for( int i = 0; i < BATCH; i++ )
+			array[i] = i;
+		// Binds Registered's natives, so not timed below
+		Registered.noop();
+	}
+
+	@Benchmark
+	public int javaAdd() {
+		return a + b;
+	}
+
+	@Benchmark
+	public void noop() {
+		Calls.noop();
+	}
+
+	@Benchmark
+	public void noopRegistered() {
+		Registered.noop();
+	}
+
+	@Benchmark
+	public int add() {
+		return Calls.add( a, b );
+	}
+
+	@Benchmark
+	public int addRegistered() {
+		return Registered.add( a, b );
+	}
+
+	@Benchmark
+	public long arrayCritical( Sized s ) {
+		return Calls.sumCritical( s.array, s.size );
+	}
+
+	@Benchmark
+	public long arrayRegion( Sized s ) {
+		return Calls.sumRegion( s.array, s.size );
+	}
+
+	@Benchmark
+	public long directBuffer( Sized s ) {
+		return Calls.sumDirect( s.direct, s.size );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BATCH )
+	public void perElement() {
+		int[] a = array;
+		for( int i = 0; i < BATCH; i++ )
+			a[i] = Calls.scale( a[i] );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BATCH )
+	public void batched() {
+		Calls.scaleAll( array, BATCH );
+	}
+
+	// Fields, not constants, lest the JIT fold the Java baseline
+	int a = 1, b = 2;
+
+	static final int BATCH = 1024;
+
+	final int[] array = new int[BATCH];
+}
+
+// eof
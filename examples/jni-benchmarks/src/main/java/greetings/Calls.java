@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package greetings;
+
+import java.nio.ByteBuffer;
+
+import edu.uw.apl.nativelibloader.NativeLoader;
+
+/**
+ * @author Stuart Maclean
+ *
+ * The native half of the JNI call overhead benchmarks, bound in the
+ * usual way, by symbol name (Java_greetings_Calls_add etc).  The C
+ * does next to no work, so that what CallBenchmark times is the JNI
+ * boundary: argument passing, array and buffer access, and the
+ * transitions into and out of native code.
+ *
+ * @see Registered, for the same calls bound via RegisterNatives
+ */
+public class Calls {
+
+	static public native void noop();
+
+	static public native int add( int a, int b );
+
+	// Sum the first len ints, via Get/ReleasePrimitiveArrayCritical
+	static public native long sumCritical( int[] a, int len );
+
+	// Ditto, via GetIntArrayRegion, i.e. a copy
+	static public native long sumRegion( int[] a, int len );
+
+	// Ditto, of a direct buffer, via GetDirectBufferAddress: no copy
+	static public native long sumDirect( ByteBuffer b, int len );
+
+	// One element per call...
+	static public native int scale( int x );
+
+	// ... or len elements, in place, in one
+	static public native void scaleAll( int[] a, int len );
+
+	// Bind c's natives (see Registered) via RegisterNatives
+	static native void register( Class<?> c );
+
+	static final String prefix = Calls.class.getPackage().getName();
+	static final String libName = "Calls";
+
+	static {
+		try {
+			NativeLoader.load( prefix, libName );
+		} catch( java.io.IOException ioe ) {
+			throw new ExceptionInInitializerError( ioe );
+		}
+	}
+}
+
+// eof
@@ -0,0 +1,132 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+#include "greetings_Calls.h"
+
+/**
+ * @author Stuart Maclean
+ *
+ * The C behind greetings.Calls and greetings.Registered.  Each does
+ * the least it can, so that the benchmarks time the JNI boundary, not
+ * this code.
+ */
+
+JNIEXPORT void JNICALL Java_greetings_Calls_noop
+(JNIEnv *env, jclass clazz) {
+}
+
+JNIEXPORT jint JNICALL Java_greetings_Calls_add
+(JNIEnv *env, jclass clazz, jint a, jint b) {
+  return a + b;
+}
+
+JNIEXPORT jlong JNICALL Java_greetings_Calls_sumCritical
+(JNIEnv *env, jclass clazz, jintArray a, jint len) {
+  jlong sum = 0;
+  /*
+	No other JNI calls, nor anything blocking, allowed until the
+	release.  The GC may be held off meanwhile.
+  */
+  jint* p = (*env)->GetPrimitiveArrayCritical( env, a, NULL );
+  if( !p )
+	return 0;
+  for( jint i = 0; i < len; i++ )
+	sum += p[i];
+  // Nothing written, so nothing to copy back
+  (*env)->ReleasePrimitiveArrayCritical( env, a, p, JNI_ABORT );
+  return sum;
+}
+
+JNIEXPORT jlong JNICALL Java_greetings_Calls_sumRegion
+(JNIEnv *env, jclass clazz, jintArray a, jint len) {
+  jlong sum = 0;
+  jint buf[1024];
+  for( jint off = 0; off < len; off += 1024 ) {
+	jint n = len - off < 1024 ? len - off : 1024;
+	(*env)->GetIntArrayRegion( env, a, off, n, buf );
+	for( jint i = 0; i < n; i++ )
+	  sum += buf[i];
+  }
+  return sum;
+}
+
+JNIEXPORT jlong JNICALL Java_greetings_Calls_sumDirect
+(JNIEnv *env, jclass clazz, jobject b, jint len) {
+  jlong sum = 0;
+  jint* p = (*env)->GetDirectBufferAddress( env, b );
+  if( !p )
+	return 0;
+  for( jint i = 0; i < len; i++ )
+	sum += p[i];
+  return sum;
+}
+
+JNIEXPORT jint JNICALL Java_greetings_Calls_scale
+(JNIEnv *env, jclass clazz, jint x) {
+  return x * 3 + 1;
+}
+
+JNIEXPORT void JNICALL Java_greetings_Calls_scaleAll
+(JNIEnv *env, jclass clazz, jintArray a, jint len) {
+  jint* p = (*env)->GetPrimitiveArrayCritical( env, a, NULL );
+  if( !p )
+	return;
+  for( jint i = 0; i < len; i++ )
+	p[i] = p[i] * 3 + 1;
+  // Written, so copy back (if p was a copy) and release
+  (*env)->ReleasePrimitiveArrayCritical( env, a, p, 0 );
+}
+
+/*
+  greetings.Registered's natives: no Java_ names, so bound only via
+  the RegisterNatives call below.
+*/
+static void registered_noop( JNIEnv *env, jclass clazz ) {
+}
+
+static jint registered_add( JNIEnv *env, jclass clazz, jint a, jint b ) {
+  return a + b;
+}
+
+static JNINativeMethod registered[] = {
+  { "noop", "()V", (void*)registered_noop },
+  { "add", "(II)I", (void*)registered_add },
+};
+
+JNIEXPORT void JNICALL Java_greetings_Calls_register
+(JNIEnv *env, jclass clazz, jclass c) {
+  (*env)->RegisterNatives( env, c, registered,
+						   sizeof( registered ) / sizeof( registered[0] ) );
+}
+
+// eof
@@ -0,0 +1,322 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A gzip file written as a series of independently compressed
+ * members (chunks), each carrying its own compressed length in a
+ * header 'extra' subfield (ids 'N','L').  Such a file is still a
+ * valid (multi-member) gzip file, readable by gunzip or
+ * GZIPInputStream.  But knowing the member boundaries and, from each
+ * member's trailer, its uncompressed size, we can also decompress
+ * all members in parallel, each straight to its place in the output
+ * file.  Much like the BGZF format of the bioinformatics world, but
+ * with no limit on chunk size.
+ *
+ * Write one with {@link #compress}, e.g. at build time, and bundle it
+ * as libfoo.so.gz.  The {@link Extractor} recognises the format, but
+ * only where it can map the bundled bytes: a plain file, or a jar
+ * entry STORED, not deflated.  Jar tools deflate every entry by
+ * default, which gains nothing on a .gz and hides the chunks, so
+ * such an entry is decompressed serially.  With the maven-jar-plugin,
+ * archive/compress false stores all entries; or add the .gz to the
+ * jar afterwards, with e.g. 'zip -0'.
+ */
+public final class ChunkedGzip {
+
+	private ChunkedGzip() {
+	}
+
+	/**
+	 * Compress in to out, as a chunked gzip stream of chunkSize
+	 * (uncompressed) bytes per member.  Neither stream is closed.
+	 */
+	static public void compress( InputStream in, OutputStream out,
+								 int chunkSize ) throws IOException {
+		byte[] chunk = new byte[chunkSize];
+		Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION, true );
+		try {
+			int n;
+			while( (n = readFully( in, chunk )) > 0 )
+				writeMember( chunk, n, deflater, out );
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static private void writeMember( byte[] chunk, int length,
+									 Deflater deflater, OutputStream out )
+		throws IOException {
+		deflater.reset();
+		deflater.setInput( chunk, 0, length );
+		deflater.finish();
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream
+			( length / 2 + 64 );
+		byte[] buf = new byte[64 * 1024];
+		while( !deflater.finished() ) {
+			int n = deflater.deflate( buf );
+			deflated.write( buf, 0, n );
+		}
+		CRC32 crc = new CRC32();
+		crc.update( chunk, 0, length );
+
+		long memberSize = HEADERSIZE + deflated.size() + TRAILERSIZE;
+		ByteBuffer header = ByteBuffer.allocate( HEADERSIZE ).
+			order( ByteOrder.LITTLE_ENDIAN );
+		header.put( (byte)0x1f ).put( (byte)0x8b ).put( (byte)8 );
+		header.put( (byte)FEXTRA );
+		header.putInt( 0 );				// mtime
+		header.put( (byte)0 ).put( (byte)255 );	// xfl, os unknown
+		header.putShort( (short)8 );	// xlen
+		header.put( (byte)'N' ).put( (byte)'L' ).putShort( (short)4 );
+		header.putInt( (int)memberSize );
+		out.write( header.array() );
+		deflated.writeTo( out );
+		ByteBuffer trailer = ByteBuffer.allocate( TRAILERSIZE ).
+			order( ByteOrder.LITTLE_ENDIAN );
+		trailer.putInt( (int)crc.getValue() ).putInt( length );
+		out.write( trailer.array() );
+	}
+
+	/**
+	 * Does the supplied buffer (at its position) start with a
+	 * chunked gzip member?
+	 */
+	static boolean isChunked( ByteBuffer bb ) {
+		int p = bb.position();
+		if( bb.limit() - p < HEADERSIZE )
+			return false;
+		bb = bb.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		return isMemberHeader( bb, p );
+	}
+
+	/**
+	 * The total uncompressed size of the chunked gzip data in bb.
+	 */
+	static long uncompressedSize( ByteBuffer bb ) throws IOException {
+		List<long[]> ms = members( bb );
+		long[] last = ms.get( ms.size() - 1 );
+		return last[2] + last[3];
+	}
+
+	/**
+	 * Decompress the chunked gzip data in bb to dst, the members
+	 * inflated in parallel on the common fork/join pool and written
+	 * at their own offsets.
+	 *
+	 * @return the number of bytes written
+	 */
+	static long decompress( final ByteBuffer bb, final FileChannel dst )
+		throws IOException {
+		List<long[]> ms = members( bb );
+		List<CompletableFuture<Void>> fs =
+			new ArrayList<CompletableFuture<Void>>( ms.size() );
+		long total = 0;
+		for( final long[] m : ms ) {
+			total += m[3];
+			fs.add( CompletableFuture.runAsync( () -> {
+						try {
+							inflateMember( bb, m, dst );
+						} catch( IOException ioe ) {
+							throw new CompletionException( ioe );
+						}
+					}, ForkJoinPool.commonPool() ) );
+		}
+		try {
+			CompletableFuture.allOf
+				( fs.toArray( new CompletableFuture<?>[fs.size()] ) ).join();
+		} catch( CompletionException ce ) {
+			Throwable t = ce.getCause();
+			if( t instanceof IOException )
+				throw (IOException)t;
+			throw new IOException( t );
+		}
+		return total;
+	}
+
+	/*
+	  Walk the member headers, hopping from one to the next by the
+	  recorded member size.  Each result is { offset, size,
+	  outputOffset, outputSize }.
+	*/
+	static private List<long[]> members( ByteBuffer bb ) throws IOException {
+		bb = bb.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		List<long[]> result = new ArrayList<long[]>();
+		long out = 0;
+		int p = bb.position();
+		while( p < bb.limit() ) {
+			if( bb.limit() - p < HEADERSIZE + TRAILERSIZE ||
+				!isMemberHeader( bb, p ) )
+				throw new IOException( "Not a chunked gzip member at " + p );
+			long size = bb.getInt( p + 16 ) & 0xffffffffL;
+			if( size < HEADERSIZE + TRAILERSIZE || p + size > bb.limit() )
+				throw new IOException( "Bad chunked gzip member at " + p );
+			long isize = bb.getInt( (int)(p + size - 4) ) & 0xffffffffL;
+			result.add( new long[] { p, size, out, isize } );
+			out += isize;
+			p += size;
+		}
+		if( result.isEmpty() )
+			throw new IOException( "Empty chunked gzip data" );
+		return result;
+	}
+
+	static private boolean isMemberHeader( ByteBuffer bb, int p ) {
+		return (bb.get( p ) & 0xff) == 0x1f &&
+			(bb.get( p + 1 ) & 0xff) == 0x8b &&
+			bb.get( p + 2 ) == 8 &&
+			(bb.get( p + 3 ) & FEXTRA) != 0 &&
+			bb.getShort( p + 10 ) >= 8 &&
+			bb.get( p + 12 ) == 'N' && bb.get( p + 13 ) == 'L' &&
+			bb.getShort( p + 14 ) == 4;
+	}
+
+	static private void inflateMember( ByteBuffer bb, long[] m,
+									   FileChannel dst ) throws IOException {
+		bb = bb.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		int offset = (int)m[0];
+		int xlen = bb.getShort( offset + 10 ) & 0xffff;
+		int dataStart = offset + 12 + xlen;
+		int dataLength = (int)(m[1] - (12 + xlen) - TRAILERSIZE);
+		byte[] in = new byte[dataLength];
+		ByteBuffer src = bb.duplicate();
+		src.position( dataStart );
+		src.get( in );
+		int crcExpected = bb.getInt( dataStart + dataLength );
+
+		byte[] out = new byte[(int)m[3]];
+		Inflater inflater = new Inflater( true );
+		try {
+			inflater.setInput( in );
+			int n = 0;
+			while( n < out.length && !inflater.finished() ) {
+				int k = inflater.inflate( out, n, out.length - n );
+				if( k == 0 && (inflater.needsInput() ||
+							   inflater.needsDictionary()) )
+					break;
+				n += k;
+			}
+			if( n != out.length )
+				throw new IOException( "Short chunked gzip member at " +
+									   offset );
+		} catch( DataFormatException dfe ) {
+			throw new IOException( "Bad chunked gzip member at " + offset,
+								   dfe );
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update( out );
+		if( (int)crc.getValue() != crcExpected )
+			throw new IOException( "CRC mismatch, chunked gzip member at " +
+								   offset );
+		ByteBuffer ob = ByteBuffer.wrap( out );
+		long position = m[2];
+		while( ob.hasRemaining() )
+			position += dst.write( ob, position );
+	}
+
+	static private int readFully( InputStream in, byte[] buf )
+		throws IOException {
+		int n = 0;
+		while( n < buf.length ) {
+			int k = in.read( buf, n, buf.length - n );
+			if( k == -1 )
+				break;
+			n += k;
+		}
+		return n;
+	}
+
+	static private final int FEXTRA = 0x04;
+	static private final int HEADERSIZE = 20;
+	static private final int TRAILERSIZE = 8;
+
+	static public final int DEFAULTCHUNKSIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Compress a file to a chunked gzip file, e.g. as a build step:
+	 *
+	 * ChunkedGzip$Main libfoo.so libfoo.so.gz [chunkSizeKB]
+	 */
+	static public class Main {
+		public static void main( String[] args ) throws IOException {
+			if( args.length < 2 ) {
+				System.err.println( "Usage: " + ChunkedGzip.class.getName() +
+									"$Main in out [chunkSizeKB]" );
+				System.exit( 1 );
+			}
+			int chunkSize = args.length > 2 ?
+				Integer.parseInt( args[2] ) * 1024 : DEFAULTCHUNKSIZE;
+			InputStream in = new BufferedInputStream
+				( new FileInputStream( new File( args[0] ) ) );
+			OutputStream out = new BufferedOutputStream
+				( new FileOutputStream( new File( args[1] ) ) );
+			try {
+				compress( in, out, chunkSize );
+			} finally {
+				in.close();
+				out.close();
+			}
+		}
+	}
+}
+
+// eof
@@ -0,0 +1,257 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * An index of every resource under some PREFIX/native/ on the
+ * classpath, built once, on first use, by one parallel pass over the
+ * classpath's jar central directories (and any directories).  It maps
+ * each resource name to its URL.  With hundreds of jars, each
+ * NativeLoader.class.getResource is a linear search across all of
+ * them, and a load makes several (uncompressed, compressed, the
+ * index, siblings).  Here each is a map lookup.
+ *
+ * The index covers only the jars and directories of the system class
+ * loader's search path (java.class.path), so is built only when that
+ * is our own class loader.  A child loader, e.g. a URLClassLoader in
+ * a container, asks its parents first, which an index of its own
+ * URLs cannot mimic.  Nor does the index see jars reached via a
+ * manifest Class-Path, or resources added after it was built.  So
+ * the index answers only hits.  A miss is passed to the class loader
+ * as before.  Since most candidate names for a library miss (other
+ * variant folders, compressed suffixes), NativeLoader first asks the
+ * index alone (see indexed) about all of them.
+ *
+ * The central directories of jars holding native resources are kept
+ * (see ZipDirectory), so extraction needs no re-read of them.
+ * Property edu.uw.apl.nativelibloader.classpathIndex.disabled turns
+ * the index off.
+ */
+final class ClasspathIndex {
+
+	private ClasspathIndex() {
+	}
+
+	/**
+	 * @param resourceName an absolute resource name,
+	 * e.g. /com/foo/native/Linux/x86_64/libfoo.so
+	 *
+	 * @return as NativeLoader.class.getResource( resourceName )
+	 */
+	static URL find( String resourceName ) {
+		ClasspathIndex index = Holder.INSTANCE;
+		return index != null ? index.lookup( resourceName ) :
+			NativeLoader.class.getResource( resourceName );
+	}
+
+	/**
+	 * @return the indexed URL for resourceName, with no recourse to
+	 * the class loader, so null if not indexed, or if no index
+	 */
+	static URL indexed( String resourceName ) {
+		ClasspathIndex index = Holder.INSTANCE;
+		return index != null ? index.get( resourceName ) : null;
+	}
+
+	/**
+	 * @return the indexed URL for resourceName, else as
+	 * NativeLoader.class.getResource( resourceName )
+	 */
+	URL lookup( String resourceName ) {
+		URL url = entries.get( resourceName );
+		return url != null ? url :
+			NativeLoader.class.getResource( resourceName );
+	}
+
+	URL get( String resourceName ) {
+		return entries.get( resourceName );
+	}
+
+	/**
+	 * @return as NativeLoader.class.getResourceAsStream( resourceName )
+	 */
+	static InputStream open( String resourceName ) throws IOException {
+		URL url = find( resourceName );
+		return url == null ? null : url.openStream();
+	}
+
+	/**
+	 * @return the index of the supplied jars and directories, in
+	 * search order, the first holding any resource winning
+	 */
+	static ClasspathIndex build( List<File> classPath ) {
+		List<CompletableFuture<Map<String,URL>>> parts =
+			new ArrayList<CompletableFuture<Map<String,URL>>>();
+		for( final File f : classPath )
+			parts.add( CompletableFuture.supplyAsync
+					   ( () -> scan( f ), NativeLoader.defaultExecutor() ) );
+		ClasspathIndex result = new ClasspathIndex();
+		for( CompletableFuture<Map<String,URL>> part : parts ) {
+			for( Map.Entry<String,URL> me : part.join().entrySet() ) {
+				String name = me.getKey();
+				if( result.entries.containsKey( name ) )
+					continue;
+				result.entries.put( name, me.getValue() );
+			}
+		}
+		return result;
+	}
+
+	static private Map<String,URL> scan( File f ) {
+		Map<String,URL> result = new HashMap<String,URL>();
+		try {
+			if( f.isFile() ) {
+				ZipDirectory zd = ZipDirectory.read( f );
+				String base = "jar:" + f.toURI() + "!/";
+				for( ZipDirectory.Entry e : zd.entries() )
+					if( isNative( e.name ) && !e.name.endsWith( "/" ) )
+						result.put( "/" + e.name,
+									new URL( base + encode( e.name ) ) );
+				if( !result.isEmpty() )
+					ZipDirectory.remember( zd );
+			} else if( f.isDirectory() ) {
+				walk( f, "/", result );
+			}
+		} catch( IOException ioe ) {
+			log.debug( "ClasspathIndex: skipping " + f + ": " + ioe );
+		}
+		return result;
+	}
+
+	// As URLClassLoader would, so e.g. a space is %20
+	static private String encode( String entryName ) throws IOException {
+		try {
+			return new URI( null, null, "/" + entryName, null ).
+				getRawPath().substring( 1 );
+		} catch( URISyntaxException use ) {
+			throw new IOException( use );
+		}
+	}
+
+	static private void walk( File dir, String path, Map<String,URL> result )
+		throws MalformedURLException {
+		File[] fs = dir.listFiles();
+		if( fs == null )
+			return;
+		for( File f : fs ) {
+			String name = path + f.getName();
+			if( f.isDirectory() )
+				walk( f, name + "/", result );
+			else if( isNative( name ) )
+				result.put( name, f.toURI().toURL() );
+		}
+	}
+
+	// As for NativeLoaderAgent, PREFIX/native/..., PREFIX non-empty
+	static private boolean isNative( String name ) {
+		return name.indexOf( "/native/", 1 ) > 0;
+	}
+
+	/*
+	  Our class loader's search path, or null if that is not the
+	  system class loader.  On Java 8 that is a URLClassLoader, whose
+	  URLs include any jars appended since startup.
+	*/
+	static List<File> searchPath() {
+		ClassLoader cl = NativeLoader.class.getClassLoader();
+		if( cl != ClassLoader.getSystemClassLoader() )
+			return null;
+		List<File> result = new ArrayList<File>();
+		if( cl instanceof URLClassLoader ) {
+			for( URL url : ((URLClassLoader)cl).getURLs() ) {
+				if( !"file".equals( url.getProtocol() ) )
+					continue;
+				try {
+					result.add( new File( url.toURI() ) );
+				} catch( URISyntaxException | IllegalArgumentException e ) {
+					log.debug( "ClasspathIndex: skipping " + url );
+				}
+			}
+			return result;
+		}
+		return NativeLoaderAgent.classPath();
+	}
+
+	static private class Holder {
+		static final ClasspathIndex INSTANCE = newInstance();
+	}
+
+	static private ClasspathIndex newInstance() {
+		if( System.getProperty( DISABLED ) != null )
+			return null;
+		List<File> path = searchPath();
+		if( path == null ) {
+			log.debug( "ClasspathIndex: not the system class loader, " +
+					   "not indexing" );
+			return null;
+		}
+		long start = System.nanoTime();
+		ClasspathIndex result = build( path );
+		if( log.isDebugEnabled() )
+			log.debug( "ClasspathIndex: " + result.entries.size() +
+					   " resources from " + path.size() + " entries in " +
+					   (System.nanoTime() - start) / 1000000 + " ms" );
+		return result;
+	}
+
+	final Map<String,URL> entries = new HashMap<String,URL>();
+
+	static final String DISABLED =
+		"edu.uw.apl.nativelibloader.classpathIndex.disabled";
+
+	static private final Log log = LogFactory.getLog( ClasspathIndex.class );
+}
+
+// eof
@@ -0,0 +1,131 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The compressed forms in which a native library may be bundled,
+ * identified by resource name suffix, e.g.
+ *
+ * com/foo/bar/native/Linux/x86_64/libfoo.so.gz
+ *
+ * gzip is supported by the JDK itself.  xz and zstd need a decoder
+ * on the classpath (org.tukaani:xz, and either com.github.luben:zstd-jni
+ * or io.airlift:aircompressor), located reflectively so that none is
+ * a hard dependency of ours.
+ */
+enum Compression {
+
+	NONE( "" ),
+	GZIP( ".gz" ),
+	XZ( ".xz", "org.tukaani.xz.XZInputStream" ),
+	ZSTD( ".zst", "com.github.luben.zstd.ZstdInputStream",
+		  "io.airlift.compress.zstd.ZstdInputStream" );
+
+	Compression( String suffix, String... decoders ) {
+		this.suffix = suffix;
+		this.decoders = decoders;
+	}
+
+	/**
+	 * The compression implied by a resource (or file) name's suffix,
+	 * NONE if no recognised suffix.
+	 */
+	static Compression of( String name ) {
+		for( Compression c : COMPRESSED )
+			if( name.endsWith( c.suffix ) )
+				return c;
+		return NONE;
+	}
+
+	String strip( String name ) {
+		return name.substring( 0, name.length() - suffix.length() );
+	}
+
+	/**
+	 * Wrap a stream of compressed bytes in a decompressing one.
+	 */
+	InputStream decompress( InputStream is ) throws IOException {
+		if( this == NONE )
+			return is;
+		if( this == GZIP )
+			return new GZIPInputStream( is, 64 * 1024 );
+		Constructor<?> c = decoder();
+		if( c == null )
+			throw new IOException( "No " + name() + " decoder available, " +
+								   "need one of " +
+								   java.util.Arrays.toString( decoders ) );
+		try {
+			return (InputStream)c.newInstance( is );
+		} catch( InvocationTargetException ite ) {
+			Throwable t = ite.getCause();
+			if( t instanceof IOException )
+				throw (IOException)t;
+			throw new IOException( t );
+		} catch( ReflectiveOperationException roe ) {
+			throw new IOException( roe );
+		}
+	}
+
+	private Constructor<?> decoder() {
+		for( String className : decoders ) {
+			try {
+				return Class.forName( className ).
+					getConstructor( InputStream.class );
+			} catch( ReflectiveOperationException roe ) {
+				// try the next candidate
+			} catch( LinkageError le ) {
+				// ditto
+			}
+		}
+		return null;
+	}
+
+	final String suffix;
+	private final String[] decoders;
+
+	// Resource name suffixes tried, in this order, after the plain name
+	static final Compression[] COMPRESSED = { GZIP, XZ, ZSTD };
+}
+
+// eof
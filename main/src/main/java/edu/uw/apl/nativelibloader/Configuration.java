@@ -0,0 +1,253 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The user's settings for loading one library, compiled once from
+ * all the places they may come from, then shared (immutable) by every
+ * later load of that library.  For each KEY, first hit wins:
+ *
+ * system property PREFIX.KEY, environment variable PREFIX_KEY,
+ * PREFIX.KEY in resource PREFIX/LIBNAME.properties, then the same
+ * three for PREFIX.LIBNAME.KEY.
+ *
+ * Environment variable names are the property names upper-cased,
+ * with dots as underscores and camel humps split, so that
+ * com.foo.useExternal is COM_FOO_USE_EXTERNAL.
+ *
+ * Snapshots are taken on first use.  Later changes to system
+ * properties, e.g. in tests, take effect only after a {@link
+ * #refresh}.
+ */
+final class Configuration {
+
+	private Configuration( String prefix, String libName, Properties p,
+						   Map<String,String> env ) throws IOException {
+		disabled = lookup( "disabled", prefix, libName, p, env ) != null;
+		useExternal =
+			lookup( "useExternal", prefix, libName, p, env ) != null;
+		cache = lookup( "cache", prefix, libName, p, env ) != null;
+		alwaysExtract =
+			lookup( "alwaysExtract", prefix, libName, p, env ) != null;
+		ignoreDependencies =
+			lookup( "ignoreDependencies", prefix, libName, p, env ) != null;
+		variant = lookup( "variant", prefix, libName, p, env );
+		String s;
+		resolve = Source.parse
+			( lookup( "resolve", prefix, libName, p, env ) );
+		systemDirs = directories
+			( lookup( "systemDirs", prefix, libName, p, env ) );
+		s = lookup( "retryAfter", prefix, libName, p, env );
+		retryAfter = TimeUnit.SECONDS.toNanos
+			( s == null ? RETRYAFTER : Long.parseLong( s.trim() ) );
+		dedup = Payloads.Policy.of
+			( lookup( "dedup", prefix, libName, p, env ) );
+		s = lookup( "path", prefix, libName, p, env );
+		if( s == null )
+			s = System.getProperty( "java.io.tmpdir" );
+		path = new File( s ).getCanonicalFile();
+	}
+
+	/**
+	 * The places a library may be found, as listed (comma-separated,
+	 * in order of preference) by the 'resolve' key
+	 */
+	enum Source {
+		// Bundled as a classpath resource, the loader's raison d'etre
+		BUNDLED,
+		// In some directory of java.library.path
+		LIBPATH,
+		// In some directory listed by the 'systemDirs' key
+		SYSTEM;
+
+		static List<Source> parse( String s ) {
+			if( s == null )
+				return DEFAULT;
+			List<Source> result = new ArrayList<Source>();
+			for( String name : s.split( "," ) )
+				if( !name.trim().isEmpty() )
+					result.add( valueOf( name.trim().toUpperCase() ) );
+			return Collections.unmodifiableList( result );
+		}
+
+		static final List<Source> DEFAULT =
+			Collections.singletonList( BUNDLED );
+	}
+
+	/**
+	 * The settings for prefix/libName, compiled on first request
+	 */
+	static Configuration of( String prefix, String libName )
+		throws IOException {
+		ConcurrentMap<String,Configuration> byLib = snapshots.get( prefix );
+		if( byLib == null ) {
+			byLib = new ConcurrentHashMap<String,Configuration>();
+			ConcurrentMap<String,Configuration> prior =
+				snapshots.putIfAbsent( prefix, byLib );
+			if( prior != null )
+				byLib = prior;
+		}
+		Configuration result = byLib.get( libName );
+		if( result == null ) {
+			result = new Configuration( prefix, libName,
+										load( prefix, libName ),
+										System.getenv() );
+			Configuration prior = byLib.putIfAbsent( libName, result );
+			if( prior != null )
+				result = prior;
+		}
+		return result;
+	}
+
+	/**
+	 * Discard all snapshots, so that the next load of any library
+	 * sees current system properties, environment and resources.
+	 * Libraries already loaded are unaffected.
+	 */
+	static void refresh() {
+		snapshots.clear();
+	}
+
+	/*
+	  Allow the loading process to be influenced by properties
+	  loaded from the classpath, as identified by a resource name
+	  built from prefix and libName
+	*/
+	static private Properties load( String prefix, String libName ) {
+		Properties p = new Properties();
+		try {
+			String asResource = prefix.replaceAll( "\\.", "/" ) +
+				"/" + libName + ".properties";
+			InputStream is = NativeLoader.class.getResourceAsStream
+				( asResource );
+			if( is == null )
+				return p;
+			try {
+				p.load( is );
+			} finally {
+				is.close();
+			}
+		} catch( IOException e ) {
+		}
+		return p;
+	}
+
+	/*
+	  We use two look up keys, in a 'hierarchical namespace' fashion
+	  (think log4j logger configuration, where a logger can be defined
+	  at e.g. class level, or package level)
+	*/
+	static private String lookup( String key, String prefix, String libName,
+								  Properties p, Map<String,String> env ) {
+		String s = lookup( prefix + "." + key, p, env );
+		if( s != null )
+			return s;
+		return lookup( prefix + "." + libName + "." + key, p, env );
+	}
+
+	static private String lookup( String name, Properties p,
+								  Map<String,String> env ) {
+		String s = System.getProperty( name );
+		if( s != null )
+			return s;
+		s = env.get( envName( name ) );
+		if( s != null )
+			return s;
+		return p.getProperty( name );
+	}
+
+	static private List<File> directories( String s ) {
+		if( s == null )
+			return Collections.emptyList();
+		List<File> result = new ArrayList<File>();
+		for( String dir : s.split( File.pathSeparator ) )
+			if( !dir.trim().isEmpty() )
+				result.add( new File( dir.trim() ) );
+		return Collections.unmodifiableList( result );
+	}
+
+	static String envName( String name ) {
+		StringBuilder sb = new StringBuilder( name.length() + 4 );
+		for( int i = 0; i < name.length(); i++ ) {
+			char c = name.charAt( i );
+			if( Character.isUpperCase( c ) && i > 0 &&
+				Character.isLowerCase( name.charAt( i-1 ) ) )
+				sb.append( '_' );
+			sb.append( Character.isLetterOrDigit( c ) ?
+					   Character.toUpperCase( c ) : '_' );
+		}
+		return sb.toString();
+	}
+
+	final boolean disabled;
+	final boolean useExternal;
+	final boolean cache;
+	final boolean alwaysExtract;
+	final boolean ignoreDependencies;
+	final String variant;
+	final Payloads.Policy dedup;
+	final List<Source> resolve;
+	final List<File> systemDirs;
+
+	// How long, in nanoseconds, a failure to find is remembered
+	final long retryAfter;
+
+	// Extraction directory, or cache root if cache
+	final File path;
+
+	// Seconds
+	static private final long RETRYAFTER = 10;
+
+	static private final
+		ConcurrentMap<String,ConcurrentMap<String,Configuration>> snapshots =
+		new ConcurrentHashMap<String,ConcurrentMap<String,Configuration>>();
+}
+
+// eof
@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The instruction set extensions of the CPU we are running on, as
+ * listed (on Linux) in /proc/cpuinfo, and from those the x86-64
+ * microarchitecture level (x86-64-v2, -v3, -v4, as defined in the
+ * x86-64 psABI, and as targeted by e.g. gcc -march=x86-64-v3).
+ *
+ * Read once, on first use.  Elsewhere (or on any failure) we know of
+ * no features, so only baseline builds are chosen.
+ */
+final class CpuFeatures {
+
+	private CpuFeatures() {
+	}
+
+	static Set<String> flags() {
+		return Holder.FLAGS;
+	}
+
+	/**
+	 * @return the highest x86-64 level (1 for the baseline, up to 4)
+	 * whose required features our CPU has
+	 */
+	static int x86_64Level() {
+		return Holder.LEVEL;
+	}
+
+	static private class Holder {
+		static final Set<String> FLAGS = readFlags( new File( CPUINFO ) );
+		static final int LEVEL = level( FLAGS );
+	}
+
+	static int level( Set<String> flags ) {
+		int level = 1;
+		for( int i = 0; i < LEVELFLAGS.length; i++ ) {
+			if( !flags.containsAll( LEVELFLAGS[i] ) )
+				break;
+			level = i + 2;
+		}
+		return level;
+	}
+
+	static Set<String> readFlags( File cpuinfo ) {
+		try {
+			BufferedReader br = new BufferedReader
+				( new InputStreamReader( new FileInputStream( cpuinfo ),
+										 "US-ASCII" ) );
+			try {
+				String line;
+				while( (line = br.readLine()) != null ) {
+					// x86 says 'flags', ARM says 'Features'
+					if( !line.startsWith( "flags" ) &&
+						!line.startsWith( "Features" ) )
+						continue;
+					int colon = line.indexOf( ':' );
+					if( colon == -1 )
+						continue;
+					Set<String> result = new HashSet<String>
+						( Arrays.asList( line.substring( colon + 1 ).
+										 trim().split( "\\s+" ) ) );
+					return Collections.unmodifiableSet( result );
+				}
+			} finally {
+				br.close();
+			}
+		} catch( IOException ioe ) {
+			// Not Linux, or no procfs
+		}
+		return Collections.emptySet();
+	}
+
+	static private final String CPUINFO = "/proc/cpuinfo";
+
+	/*
+	  The features each level adds over the one below, as named in
+	  /proc/cpuinfo.  'abm' is how Linux reports LZCNT, 'xsave' stands
+	  in for OSXSAVE.
+	*/
+	static private final List<?>[] LEVELFLAGS = {
+		// x86-64-v2
+		Arrays.asList( "cx16", "lahf_lm", "popcnt", "sse4_1", "sse4_2",
+					   "ssse3" ),
+		// x86-64-v3
+		Arrays.asList( "avx", "avx2", "bmi1", "bmi2", "f16c", "fma", "abm",
+					   "movbe", "xsave" ),
+		// x86-64-v4
+		Arrays.asList( "avx512f", "avx512bw", "avx512cd", "avx512dq",
+					   "avx512vl" )
+	};
+}
+
+// eof
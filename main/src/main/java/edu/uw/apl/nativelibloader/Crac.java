@@ -0,0 +1,247 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Coordinated Restore at Checkpoint (CRaC) support.  A VM restored
+ * from a checkpoint image has every library loaded before the
+ * checkpoint still loaded, its code being in the image.  So
+ * NativeLoader's registry stays valid and is reused as is, no
+ * library loaded again.  What may not survive is the extracted file
+ * behind each one, which things still use by path (a later
+ * NativeSymbols lookup, a dependent's load, dedup links): the restore
+ * may be on another host, or after a tmpdir cleanup.  So we
+ *
+ * before a checkpoint, record each loaded library's file, size and
+ * digest,
+ *
+ * after a restore, take a new Janitor session (the restored VM is a
+ * new process, perhaps one of many restored from the same image),
+ * then revalidate each file recorded: one missing or changed (in
+ * size or digest) is extracted again, one intact but of the old
+ * session is adopted into the new (see Janitor.adopt).  Nothing
+ * intact is copied.  Payloads learns of every file so replaced, and
+ * forgets any gone, so later duplicates link to files that exist.
+ *
+ * The digest recorded is of the file itself: Library.digest, where
+ * known, is of the bundled bytes, which for a compressed resource are
+ * not the file's.
+ *
+ * Registered, as an org.crac (or, on a CRaC JDK without that
+ * library, jdk.crac) Resource, via reflection: without either API,
+ * this is a no-op.  Property edu.uw.apl.nativelibloader.crac.disabled
+ * turns it off.
+ */
+final class Crac {
+
+	private Crac() {
+	}
+
+	/**
+	 * @return true if registered with some CRaC API
+	 */
+	static boolean register() {
+		if( System.getProperty( DISABLED ) != null )
+			return false;
+		for( String pkg : PACKAGES ) {
+			try {
+				Class<?> core = Class.forName( pkg + ".Core" );
+				Class<?> resource = Class.forName( pkg + ".Resource" );
+				Object context = core.getMethod( "getGlobalContext" ).
+					invoke( null );
+				Object r = Proxy.newProxyInstance
+					( Crac.class.getClassLoader(),
+					  new Class<?>[] { resource }, HANDLER );
+				// Via the public Context: the global one's own class
+				// need not be accessible
+				Class.forName( pkg + ".Context" ).
+					getMethod( "register", resource ).invoke( context, r );
+				// Contexts may hold resources only weakly
+				Crac.resource = r;
+				log.debug( "Registered with " + pkg );
+				return true;
+			} catch( ClassNotFoundException cnfe ) {
+				// Try the next, else no CRaC
+			} catch( Exception e ) {
+				log.warn( "Cannot register with " + pkg + ": " + e );
+			}
+		}
+		return false;
+	}
+
+	static void beforeCheckpoint() {
+		List<Record> records = new ArrayList<Record>();
+		for( Library library : NativeLoader.libraries() ) {
+			File f = library.file;
+			if( !library.loaded || f == null )
+				continue;
+			try {
+				records.add( new Record( library, f, f.length(),
+										 ExtractionCache.digest( f ) ) );
+			} catch( IOException ioe ) {
+				// Missing already: re-extracted on restore
+				records.add( new Record( library, f, -1, null ) );
+			}
+		}
+		recorded = records;
+		log.debug( "Checkpoint: recorded " + records.size() + " files" );
+	}
+
+	static void afterRestore() {
+		Janitor.renew();
+		int extracted = 0, adopted = 0;
+		for( Record r : recorded ) {
+			Library library = r.library;
+			File f = library.file;
+			if( f == null )
+				continue;
+			// A dependency's file may already be replaced, by its root
+			if( !f.equals( r.file ) && f.isFile() )
+				continue;
+			if( isIntact( f, r ) ) {
+				File g = Janitor.adopt( f );
+				if( g != f ) {
+					library.file = g;
+					Payloads.moved( f, g );
+					adopted++;
+				}
+				continue;
+			}
+			try {
+				NativeLoader.Linkage l = NativeLoader.prepare
+					( library.prefix, library.libName, new LoadTimings() );
+				if( l.file == null )
+					continue;
+				library.file = l.file;
+				Payloads.moved( f, l.file );
+				if( library.digest != null )
+					Payloads.put( library.digest, l.file );
+				for( Dependencies.Node n : l.dependencies ) {
+					String depName = Dependencies.libName( n.name );
+					if( depName == null )
+						continue;
+					Library dep = NativeLoader.library( library.prefix,
+														depName );
+					if( dep.file != null )
+						Payloads.moved( dep.file, n.file );
+					dep.file = n.file;
+				}
+				extracted++;
+			} catch( Exception e ) {
+				log.warn( "Restore: cannot re-extract " + library +
+						  ": " + e );
+			}
+		}
+		Payloads.evictMissing();
+		log.debug( "Restore: " + extracted + " re-extracted, " + adopted +
+				   " adopted, of " + recorded.size() );
+	}
+
+	// Of the recorded size, and digest
+	static private boolean isIntact( File f, Record r ) {
+		if( r.digest == null || !f.isFile() || f.length() != r.length )
+			return false;
+		try {
+			return r.digest.equals( ExtractionCache.digest( f ) );
+		} catch( IOException ioe ) {
+			return false;
+		}
+	}
+
+	static private final class Record {
+		Record( Library library, File file, long length, String digest ) {
+			this.library = library;
+			this.file = file;
+			this.length = length;
+			this.digest = digest;
+		}
+		final Library library;
+		final File file;
+		final long length;
+		final String digest;
+	}
+
+	/*
+	  The Resource: beforeCheckpoint( Context ), afterRestore( Context ),
+	  plus Object's methods, which a proxy must also answer.
+	*/
+	static private final InvocationHandler HANDLER =
+		( Object proxy, Method m, Object[] args ) -> {
+		switch( m.getName() ) {
+		case "beforeCheckpoint":
+			beforeCheckpoint();
+			return null;
+		case "afterRestore":
+			afterRestore();
+			return null;
+		case "hashCode":
+			return System.identityHashCode( proxy );
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "NativeLoader CRaC resource";
+		default:
+			return null;
+		}
+	};
+
+	static final String DISABLED =
+		"edu.uw.apl.nativelibloader.crac.disabled";
+
+	static private final String[] PACKAGES = { "org.crac", "jdk.crac" };
+
+	static private volatile Object resource;
+
+	static private volatile List<Record> recorded = Collections.emptyList();
+
+	static private final Log log = LogFactory.getLog( Crac.class );
+}
+
+// eof
@@ -0,0 +1,410 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Resolves the dependencies of a bundled (ELF) native library on
+ * other libraries bundled alongside it, e.g. libfoo.so needing
+ * libbar.so.1, where both sit in com/foo/bar/native/Linux/x86_64/.
+ *
+ * Left to itself, System.load of an extracted libfoo would fail: the
+ * dynamic linker cannot find libbar.so.1, which is at best in the
+ * temp dir under some uuid-mangled name.  So we read each library's
+ * DT_NEEDED entries (see ElfFile), match them against the bundled
+ * file names, extract the matches (in parallel, level by level of the
+ * graph) and repeat until no new matches.  Then every library in the
+ * graph is linked, under its soname, into a directory of its own, and
+ * the caller System.loads them in dependency order, deepest first.
+ * By the time libfoo is loaded, libbar.so.1 is already in the process.
+ *
+ * A needed name matches a bundled file if equal to its name (bar any
+ * compression suffix), or an extension of it (libbar.so.1 matches a
+ * bundled libbar.so).
+ */
+final class Dependencies {
+
+	/**
+	 * Extracts a bundled library, by resource name, to some file
+	 */
+	interface Materializer {
+		File materialize( String resourceName ) throws IOException;
+	}
+
+	/**
+	 * A library in the dependency graph
+	 */
+	static final class Node {
+		Node( String name, String resourceName ) {
+			this.name = name;
+			this.resourceName = resourceName;
+		}
+
+		// The bundled file name, bar any compression suffix
+		final String name;
+		final String resourceName;
+
+		// Where materialized, then where linked by soname
+		File file;
+		String soname;
+		List<String> needed = Collections.emptyList();
+		final List<Node> dependencies = new ArrayList<Node>();
+	}
+
+	/**
+	 * @param rootResourceName the requested library's resource name
+	 *
+	 * @param rootFile the requested library, already materialized
+	 *
+	 * @param siblings the libraries bundled alongside the root (which
+	 * may include the root itself), from bundled name (compression
+	 * suffix stripped) to resource name, excluding any already loaded
+	 *
+	 * @return null if the root needs none of its siblings.  Else every
+	 * library in the graph, materialized, in load order: dependencies
+	 * first, the root last.
+	 */
+	static List<Node> resolve( String rootResourceName, File rootFile,
+							   Map<String,String> siblings,
+							   final Materializer materializer,
+							   Executor executor ) throws IOException {
+		String rootName = Compression.of( rootResourceName ).strip
+			( rootResourceName.substring
+			  ( rootResourceName.lastIndexOf( '/' ) + 1 ) );
+		Node root = new Node( rootName, rootResourceName );
+		root.file = rootFile;
+		if( !parse( root ) )
+			return null;
+
+		Map<String,Node> nodes = new LinkedHashMap<String,Node>();
+		nodes.put( rootName, root );
+		List<Node> frontier = Collections.singletonList( root );
+		while( !frontier.isEmpty() ) {
+			List<Node> next = new ArrayList<Node>();
+			for( Node n : frontier ) {
+				for( String needed : n.needed ) {
+					String name = match( needed, siblings );
+					if( name == null )
+						continue;
+					Node d = nodes.get( name );
+					if( d == null ) {
+						d = new Node( name, siblings.get( name ) );
+						nodes.put( name, d );
+						next.add( d );
+					}
+					if( d != n )
+						n.dependencies.add( d );
+				}
+			}
+			materialize( next, materializer, executor );
+			frontier = next;
+		}
+		if( root.dependencies.isEmpty() )
+			return null;
+
+		List<Node> result = new ArrayList<Node>( nodes.size() );
+		order( root, new HashSet<Node>(), result );
+		return result;
+	}
+
+	/*
+	  Extract and parse a level of the graph, one task per library.
+	*/
+	static private void materialize( List<Node> ns,
+									 final Materializer materializer,
+									 Executor executor ) throws IOException {
+		if( ns.isEmpty() )
+			return;
+		List<CompletableFuture<Void>> fs =
+			new ArrayList<CompletableFuture<Void>>( ns.size() );
+		for( final Node n : ns ) {
+			fs.add( CompletableFuture.runAsync( () -> {
+						try {
+							n.file = materializer.materialize
+								( n.resourceName );
+							parse( n );
+						} catch( IOException ioe ) {
+							throw new CompletionException( ioe );
+						}
+					}, executor ) );
+		}
+		try {
+			CompletableFuture.allOf
+				( fs.toArray( new CompletableFuture<?>[fs.size()] ) ).join();
+		} catch( CompletionException ce ) {
+			Throwable t = ce.getCause();
+			if( t instanceof IOException )
+				throw (IOException)t;
+			throw new IOException( t );
+		}
+	}
+
+	/*
+	  Read soname and needed from a materialized node.  A non-ELF
+	  file (Mac, Windows, or just bogus) has neither.
+	*/
+	static private boolean parse( Node n ) {
+		try {
+			ElfFile elf = ElfFile.open( n.file );
+			try {
+				n.soname = elf.soname();
+				n.needed = elf.needed();
+				return true;
+			} finally {
+				elf.close();
+			}
+		} catch( IOException ioe ) {
+			log.debug( "Not parseable as ELF: " + n.file );
+			return false;
+		}
+	}
+
+	// Post-order, so dependencies precede dependents.  Cycles broken
+	static private void order( Node n, Set<Node> visited, List<Node> result ) {
+		if( !visited.add( n ) )
+			return;
+		for( Node d : n.dependencies )
+			order( d, visited, result );
+		result.add( n );
+	}
+
+	/**
+	 * The libraries bundled in the same folder as some resource, from
+	 * bundled name (compression suffix stripped) to resource name.
+	 * Per the index if we have one.  Else we list the jar's central
+	 * directory, or the directory, holding the resource.  Anything
+	 * else (e.g. a jar within a jar) lists as empty.
+	 *
+	 * @param nativePath the prefix's native folder, e.g. a/b/native
+	 */
+	static Map<String,String> siblings( String resourceName,
+										String nativePath,
+										NativeManifest manifest )
+		throws IOException {
+		Map<String,String> result = new LinkedHashMap<String,String>();
+		String folder = resourceName.substring
+			( 0, resourceName.lastIndexOf( '/' ) + 1 );
+		if( manifest != null ) {
+			String base = "/" + nativePath + "/";
+			for( NativeManifest.Entry e : manifest.entries() )
+				add( base + e.path, folder, result );
+			return result;
+		}
+		URL url = ClasspathIndex.find( resourceName );
+		if( url == null )
+			return result;
+		File jar = Extractor.localJar( url );
+		if( jar != null ) {
+			for( ZipDirectory.Entry e : ZipDirectory.of( jar ).entries() )
+				add( "/" + e.name, folder, result );
+		} else if( "file".equals( url.getProtocol() ) ) {
+			String[] names = Extractor.toFile( url ).getParentFile().list();
+			if( names != null )
+				for( String name : names )
+					add( folder + name, folder, result );
+		}
+		return result;
+	}
+
+	static private void add( String resourceName, String folder,
+							 Map<String,String> result ) {
+		if( !resourceName.startsWith( folder ) )
+			return;
+		String name = resourceName.substring( folder.length() );
+		if( name.isEmpty() || name.indexOf( '/' ) != -1 )
+			return;
+		result.put( Compression.of( name ).strip( name ), resourceName );
+	}
+
+	/**
+	 * The libName under which a bundled file would be loaded, e.g.
+	 * 'bar' for libbar.so (or libbar.so.1), or null if the name does
+	 * not follow the platform's convention.
+	 */
+	static String libName( String fileName ) {
+		String mapped = System.mapLibraryName( "@" );
+		int at = mapped.indexOf( '@' );
+		String pre = mapped.substring( 0, at );
+		String suf = mapped.substring( at + 1 );
+		if( !fileName.startsWith( pre ) )
+			return null;
+		int i = fileName.indexOf( suf, pre.length() );
+		if( i <= pre.length() )
+			return null;
+		return fileName.substring( pre.length(), i );
+	}
+
+	static String match( String needed, Map<String,String> siblings ) {
+		if( siblings.containsKey( needed ) )
+			return needed;
+		for( String name : siblings.keySet() )
+			if( needed.startsWith( name + "." ) )
+				return name;
+		return null;
+	}
+
+	/**
+	 * Link (hard, else copy) each node's file into a directory, under
+	 * its soname (else its bundled name), and repoint the node at it.
+	 *
+	 * @param shared if true, the directory is named by the digest of
+	 * its content (as the ExtractionCache names files) below parent,
+	 * published atomically and reused by later VMs.  Else it is named
+	 * uniquely, and cleaned up by the Janitor.
+	 */
+	static File layout( List<Node> nodes, File parent, String baseName,
+						boolean shared ) throws IOException {
+		File dir;
+		if( shared ) {
+			MessageDigest md = ExtractionCache.newMessageDigest();
+			for( Node n : nodes )
+				md.update( (fileName( n ) + "=" + n.file.getName() + "\n").
+						   getBytes( "UTF-8" ) );
+			dir = new File( parent, baseName + "-" +
+							ExtractionCache.toHex( md.digest() ) );
+			if( !isComplete( dir, nodes ) ) {
+				File tmp = new File( parent, "." + dir.getName() + "-" +
+									 UUID.randomUUID() + ".tmp" );
+				try {
+					populate( tmp, nodes );
+					publish( tmp, dir );
+				} finally {
+					if( tmp.exists() )
+						FileUtils.deleteDirectory( tmp );
+				}
+			}
+		} else {
+			// Named, and in time deleted, as are single extractions
+			dir = Janitor.newFile( parent, baseName );
+			populate( dir, nodes );
+		}
+		for( Node n : nodes )
+			n.file = new File( dir, fileName( n ) );
+		log.debug( "Laid out " + nodes.size() + " libraries in " + dir );
+		return dir;
+	}
+
+	/**
+	 * @return true if the nodes' files already sit together, each
+	 * under its soname (else bundled name), as in an exploded
+	 * classpath folder loaded in place, so need no layout
+	 */
+	static boolean isLaidOut( List<Node> nodes ) {
+		File dir = nodes.get( 0 ).file.getParentFile();
+		for( Node n : nodes )
+			if( !n.file.getName().equals( fileName( n ) ) ||
+				!n.file.getParentFile().equals( dir ) )
+				return false;
+		return true;
+	}
+
+	static private String fileName( Node n ) {
+		return n.soname != null ? n.soname : n.name;
+	}
+
+	static private boolean isComplete( File dir, List<Node> nodes ) {
+		if( !dir.isDirectory() )
+			return false;
+		for( Node n : nodes ) {
+			File f = new File( dir, fileName( n ) );
+			if( !f.isFile() || f.length() != n.file.length() )
+				return false;
+		}
+		return true;
+	}
+
+	static private void populate( File dir, List<Node> nodes )
+		throws IOException {
+		if( !dir.mkdirs() && !dir.isDirectory() )
+			throw new IOException( "Cannot create " + dir );
+		for( Node n : nodes ) {
+			File f = new File( dir, fileName( n ) );
+			try {
+				Files.createLink( f.toPath(), n.file.toPath() );
+			} catch( IOException|UnsupportedOperationException e ) {
+				// e.g. cross-device: settle for a copy
+				Files.copy( n.file.toPath(), f.toPath(),
+							StandardCopyOption.REPLACE_EXISTING );
+				f.setExecutable( true );
+			}
+		}
+	}
+
+	static private void publish( File tmp, File dir ) throws IOException {
+		try {
+			Files.move( tmp.toPath(), dir.toPath(),
+						StandardCopyOption.ATOMIC_MOVE );
+		} catch( AtomicMoveNotSupportedException amnse ) {
+			if( !tmp.renameTo( dir ) && !dir.isDirectory() )
+				throw new IOException( "Cannot publish " + dir );
+		} catch( FileAlreadyExistsException faee ) {
+			// Another VM beat us to it, with identical content
+		} catch( IOException ioe ) {
+			// Ditto, some platforms report a non-empty target thus
+			if( !dir.isDirectory() )
+				throw ioe;
+		}
+	}
+
+	static private final Log log = LogFactory.getLog( Dependencies.class );
+}
+
+// eof
@@ -0,0 +1,371 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A minimal, read-only view of an ELF object file (executable or
+ * shared library), enough to answer questions we would otherwise
+ * have to fork readelf for: the target machine and ABI flags, the
+ * program interpreter (which tells glibc from musl), the dynamic
+ * section's soname and needed libraries, and the raw content of
+ * named sections (e.g. .ARM.attributes).  Handles 32 and
+ * 64 bit, little and big endian files.
+ */
+final class ElfFile implements Closeable {
+
+	private ElfFile( File file, FileChannel fc ) throws IOException {
+		this.file = file;
+		this.fc = fc;
+		ByteBuffer ident = ByteBuffer.allocate( EI_NIDENT );
+		if( fc.read( ident, 0 ) != EI_NIDENT || ident.getInt( 0 ) != ELFMAGIC )
+			throw new IOException( "Not an ELF file: " + file );
+		is64 = ident.get( 4 ) == ELFCLASS64;
+		order = ident.get( 5 ) == ELFDATA2MSB ?
+			ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+		ByteBuffer h = read( 0, is64 ? 64 : 52 );
+		machine = h.getShort( 18 ) & 0xffff;
+		if( is64 ) {
+			phoff = h.getLong( 32 );
+			shoff = h.getLong( 40 );
+			flags = h.getInt( 48 );
+			phentsize = h.getShort( 54 ) & 0xffff;
+			phnum = h.getShort( 56 ) & 0xffff;
+			shentsize = h.getShort( 58 ) & 0xffff;
+			shnum = h.getShort( 60 ) & 0xffff;
+			shstrndx = h.getShort( 62 ) & 0xffff;
+		} else {
+			phoff = h.getInt( 28 ) & 0xffffffffL;
+			shoff = h.getInt( 32 ) & 0xffffffffL;
+			flags = h.getInt( 36 );
+			phentsize = h.getShort( 42 ) & 0xffff;
+			phnum = h.getShort( 44 ) & 0xffff;
+			shentsize = h.getShort( 46 ) & 0xffff;
+			shnum = h.getShort( 48 ) & 0xffff;
+			shstrndx = h.getShort( 50 ) & 0xffff;
+		}
+	}
+
+	static ElfFile open( File f ) throws IOException {
+		FileChannel fc = FileChannel.open( f.toPath(),
+										   StandardOpenOption.READ );
+		try {
+			return new ElfFile( f, fc );
+		} catch( IOException ioe ) {
+			fc.close();
+			throw ioe;
+		} catch( RuntimeException re ) {
+			fc.close();
+			throw new IOException( "Bad ELF file: " + f, re );
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		fc.close();
+	}
+
+	int machine() {
+		return machine;
+	}
+
+	int flags() {
+		return flags;
+	}
+
+	boolean is64() {
+		return is64;
+	}
+
+	/**
+	 * @return the program interpreter (PT_INTERP), e.g.
+	 * /lib64/ld-linux-x86-64.so.2, or null if none (as for a shared
+	 * library)
+	 */
+	String interpreter() throws IOException {
+		for( int i = 0; i < phnum; i++ ) {
+			ByteBuffer ph = read( phoff + (long)i * phentsize, phentsize );
+			if( ph.getInt( 0 ) != PT_INTERP )
+				continue;
+			long offset = is64 ? ph.getLong( 8 ) : ph.getInt( 4 ) & 0xffffffffL;
+			long size = is64 ? ph.getLong( 32 ) : ph.getInt( 16 ) & 0xffffffffL;
+			return string( read( offset, (int)size ), 0 );
+		}
+		return null;
+	}
+
+	/**
+	 * @return the DT_SONAME of a shared library, null if none
+	 */
+	String soname() throws IOException {
+		List<String> l = dynamicStrings( DT_SONAME );
+		return l.isEmpty() ? null : l.get( 0 );
+	}
+
+	/**
+	 * @return the DT_NEEDED entries, i.e. the sonames of the shared
+	 * libraries this object depends on, in link order
+	 */
+	List<String> needed() throws IOException {
+		return dynamicStrings( DT_NEEDED );
+	}
+
+	/*
+	  The string values of all .dynamic entries with the given tag.
+	  The strings live in the section the .dynamic section links to,
+	  i.e. .dynstr.
+	*/
+	private List<String> dynamicStrings( long tag ) throws IOException {
+		List<String> result = new ArrayList<String>();
+		long[] dynamic = sectionHeader( ".dynamic" );
+		if( dynamic == null || dynamic[LINK] >= shnum )
+			return result;
+		ByteBuffer entries = read( dynamic[OFFSET], (int)dynamic[SIZE] );
+		long[] strtab = sectionHeader( (int)dynamic[LINK] );
+		ByteBuffer strings = read( strtab[OFFSET], (int)strtab[SIZE] );
+		int entrySize = is64 ? 16 : 8;
+		for( int p = 0; p + entrySize <= entries.limit(); p += entrySize ) {
+			long t = is64 ? entries.getLong( p ) : entries.getInt( p );
+			if( t == DT_NULL )
+				break;
+			if( t != tag )
+				continue;
+			long v = is64 ? entries.getLong( p + 8 ) :
+				entries.getInt( p + 4 ) & 0xffffffffL;
+			if( v < strings.limit() )
+				result.add( string( strings, (int)v ) );
+		}
+		return result;
+	}
+
+	/**
+	 * From the .ARM.attributes section, the Tag_ABI_VFP_args value:
+	 * are floating point arguments passed in VFP registers, i.e. is
+	 * this a hard-float (armhf) object?
+	 *
+	 * @return null if the file records no such attribute
+	 */
+	Boolean armVfpArgs() throws IOException {
+		ByteBuffer bb = section( ".ARM.attributes" );
+		if( bb == null || bb.limit() < 1 || bb.get( 0 ) != 'A' )
+			return null;
+		int pos = 1;
+		while( pos + 4 <= bb.limit() ) {
+			// A vendor subsection: length, vendor name, data
+			int length = bb.getInt( pos );
+			if( length <= 4 )
+				break;
+			int end = Math.min( pos + length, bb.limit() );
+			String vendor = string( bb, pos + 4 );
+			int p = pos + 4 + vendor.length() + 1;
+			if( vendor.equals( "aeabi" ) ) {
+				while( p + 5 <= end ) {
+					// A sub-subsection: tag, size, attributes
+					int tag = bb.get( p ) & 0xff;
+					int size = bb.getInt( p + 1 );
+					if( size <= 5 )
+						break;
+					int subEnd = Math.min( p + size, end );
+					if( tag == TAG_FILE ) {
+						Boolean b = vfpArgs( bb, p + 5, subEnd );
+						if( b != null )
+							return b;
+					}
+					p = subEnd;
+				}
+			}
+			pos = end;
+		}
+		return null;
+	}
+
+	/*
+	  Walk an attribute list for Tag_ABI_VFP_args.  Values are
+	  ULEB128, bar a few tags whose values are NUL-terminated strings
+	  (including, by convention, all odd tags above 32).
+	*/
+	static private Boolean vfpArgs( ByteBuffer bb, int pos, int end ) {
+		int[] cursor = { pos };
+		while( cursor[0] < end ) {
+			long tag = uleb128( bb, cursor );
+			if( tag == TAG_CPU_RAW_NAME || tag == TAG_CPU_NAME ||
+				(tag > 32 && (tag & 1) == 1) ) {
+				cursor[0] += string( bb, cursor[0] ).length() + 1;
+			} else if( tag == TAG_COMPATIBILITY ) {
+				uleb128( bb, cursor );
+				cursor[0] += string( bb, cursor[0] ).length() + 1;
+			} else {
+				long value = uleb128( bb, cursor );
+				if( tag == TAG_ABI_VFP_ARGS )
+					return value == 1;
+			}
+		}
+		return null;
+	}
+
+	static private long uleb128( ByteBuffer bb, int[] cursor ) {
+		long result = 0;
+		int shift = 0;
+		while( cursor[0] < bb.limit() ) {
+			int b = bb.get( cursor[0]++ ) & 0xff;
+			result |= (long)(b & 0x7f) << shift;
+			if( (b & 0x80) == 0 )
+				break;
+			shift += 7;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the content of the named section, or null if the file
+	 * has no such section
+	 */
+	ByteBuffer section( String name ) throws IOException {
+		long[] sh = sectionHeader( name );
+		return sh == null ? null : read( sh[OFFSET], (int)sh[SIZE] );
+	}
+
+	/*
+	  The section header for the named section as { type, offset,
+	  size, link }, null if absent.
+	*/
+	long[] sectionHeader( String name ) throws IOException {
+		if( shoff == 0 || shstrndx >= shnum )
+			return null;
+		long[] strtab = sectionHeader( shstrndx );
+		ByteBuffer names = read( strtab[OFFSET], (int)strtab[SIZE] );
+		for( int i = 0; i < shnum; i++ ) {
+			long[] sh = sectionHeader( i );
+			if( name.equals( string( names, (int)sh[NAME] ) ) )
+				return sh;
+		}
+		return null;
+	}
+
+	long[] sectionHeader( int i ) throws IOException {
+		ByteBuffer sh = read( shoff + (long)i * shentsize, shentsize );
+		long[] result = new long[5];
+		result[NAME] = sh.getInt( 0 ) & 0xffffffffL;
+		result[TYPE] = sh.getInt( 4 ) & 0xffffffffL;
+		if( is64 ) {
+			result[OFFSET] = sh.getLong( 24 );
+			result[SIZE] = sh.getLong( 32 );
+			result[LINK] = sh.getInt( 40 ) & 0xffffffffL;
+		} else {
+			result[OFFSET] = sh.getInt( 16 ) & 0xffffffffL;
+			result[SIZE] = sh.getInt( 20 ) & 0xffffffffL;
+			result[LINK] = sh.getInt( 24 ) & 0xffffffffL;
+		}
+		return result;
+	}
+
+	ByteBuffer read( long position, int length ) throws IOException {
+		if( length < 0 || position < 0 || position + length > fc.size() )
+			throw new IOException( "Bad ELF file: " + file );
+		ByteBuffer bb = ByteBuffer.allocate( length );
+		while( bb.hasRemaining() ) {
+			if( fc.read( bb, position + bb.position() ) < 0 )
+				throw new IOException( "Unexpected EOF: " + file );
+		}
+		bb.flip();
+		return bb.order( order );
+	}
+
+	// The NUL-terminated string at offset in bb
+	static String string( ByteBuffer bb, int offset ) {
+		int end = offset;
+		while( end < bb.limit() && bb.get( end ) != 0 )
+			end++;
+		byte[] bs = new byte[end - offset];
+		for( int i = 0; i < bs.length; i++ )
+			bs[i] = bb.get( offset + i );
+		return new String( bs, ASCII );
+	}
+
+	private final File file;
+	private final FileChannel fc;
+	private final boolean is64;
+	private final ByteOrder order;
+	private final int machine;
+	private final int flags;
+	private final long phoff, shoff;
+	private final int phentsize, phnum, shentsize, shnum, shstrndx;
+
+	// Indices into our section header arrays
+	static final int NAME = 0;
+	static final int TYPE = 1;
+	static final int OFFSET = 2;
+	static final int SIZE = 3;
+	static final int LINK = 4;
+
+	static final int EM_ARM = 40;
+	static final int EM_AARCH64 = 183;
+
+	static final int EF_ARM_ABI_FLOAT_HARD = 0x400;
+
+	// ARM build attribute tags
+	static private final int TAG_FILE = 1;
+	static private final int TAG_CPU_RAW_NAME = 4;
+	static private final int TAG_CPU_NAME = 5;
+	static private final int TAG_ABI_VFP_ARGS = 28;
+	static private final int TAG_COMPATIBILITY = 32;
+
+	static private final int EI_NIDENT = 16;
+	static private final int ELFMAGIC = 0x7f454c46;	// big endian read
+	static private final byte ELFCLASS64 = 2;
+	static private final byte ELFDATA2MSB = 2;
+	static private final int PT_INTERP = 3;
+	static private final long DT_NULL = 0;
+	static private final long DT_NEEDED = 1;
+	static private final long DT_SONAME = 14;
+
+	static private final Charset ASCII = Charset.forName( "US-ASCII" );
+}
+
+// eof
@@ -0,0 +1,357 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A persistent, content-addressed store for extracted native
+ * libraries.  Where {@link NativeLoader} would by default copy a
+ * resource to a fresh, uniquely named file on every load, here the
+ * extracted file is named by the SHA-256 digest of its content:
+ *
+ * DIR/com.foo.bar.native.Linux.x86_64.libstuff.so-DIGEST
+ *
+ * so that a later VM (or class loader) wanting the same bytes finds
+ * them already on disk and simply reuses them.  Lacking an index to
+ * give the digest up front, a small reference file, named for the
+ * resource's CRC and size in its jar, records it:
+ *
+ * DIR/.com.foo.bar.native.Linux.x86_64.libstuff.so-CRC-SIZE.ref
+ *
+ * A hit thus reads no library bytes at all, with or without an
+ * index.  A new entry is written to a temporary name in the same
+ * directory, its digest computed as the bytes are streamed, and only
+ * then published via an atomic rename.  Readers thus never see a
+ * partially written file.
+ * Entries are never deleted on exit.  Misses are serialized across
+ * processes (see ExtractionLock), so that many VMs starting together
+ * extract each entry once between them.
+ *
+ * The digest is of the resource as bundled, so for a compressed
+ * resource (see Compression) of the compressed bytes.  Each such
+ * resource is thus decompressed once only per host, not once per VM.
+ *
+ * Enabled per prefix/libName via the 'cache' key, see NativeLoader.
+ */
+class ExtractionCache {
+
+	/**
+	 * @param resourceName an absolute classpath resource name,
+	 * e.g. /com/foo/bar/native/Linux/x86_64/libstuff.so
+	 *
+	 * @param cacheDir the cache root, created if missing
+	 *
+	 * @param entry the resource's NativeManifest entry, if the
+	 * prefix has an index, else null
+	 *
+	 * @param t told of the bytes written, if any
+	 *
+	 * @return the cache entry for the resource's current content
+	 */
+	static File extract( String resourceName, File cacheDir,
+						 NativeManifest.Entry entry, LoadTimings t )
+		throws IOException {
+
+		/*
+		  The index, if any, tells us the digest.  Else a reference
+		  file, named for what the jar's directory (or the
+		  filesystem) already tells us of the resource, records the
+		  digest it had when last extracted.  Only for a resource
+		  with no such identity do we first hash it.
+		*/
+		String digest = null;
+		File ref = null;
+		if( entry != null ) {
+			digest = entry.sha256;
+		} else {
+			String stamp = stamp( resourceName );
+			if( stamp != null )
+				ref = new File( cacheDir, "." + flatten( resourceName ) +
+								"-" + stamp + ".ref" );
+			else
+				digest = digest( resourceName );
+		}
+
+		File cachedFile = lookup( resourceName, cacheDir, digest, ref, entry );
+		if( cachedFile != null ) {
+			log.debug( "Cache hit: " + cachedFile );
+			return cachedFile;
+		}
+
+		if( !cacheDir.isDirectory() && !cacheDir.mkdirs() &&
+			!cacheDir.isDirectory() )
+			throw new IOException( "Cannot create cache dir: " + cacheDir );
+
+		/*
+		  A miss.  Of the processes on this host missing at once, one
+		  extracts, the rest wait, then (usually) hit.
+		*/
+		String lockName = ref != null ? ref.getName() :
+			"." + cachedFile( resourceName, cacheDir, digest ).getName();
+		ExtractionLock lock = ExtractionLock.acquire
+			( new File( cacheDir, lockName + ".lock" ) );
+		try {
+			cachedFile = lookup( resourceName, cacheDir, digest, ref, entry );
+			if( cachedFile != null ) {
+				log.debug( "Cache hit, once unlocked: " + cachedFile );
+				return cachedFile;
+			}
+			return publish( resourceName, cacheDir, digest, ref, entry, t );
+		} finally {
+			lock.close();
+		}
+	}
+
+	/**
+	 * The name under which the resource, of the given digest, is
+	 * (or would be) cached
+	 */
+	static File cachedFile( String resourceName, File cacheDir,
+							String digest ) {
+		return new File( cacheDir, flatten( resourceName ) + "-" + digest );
+	}
+
+	// e.g. com.foo.bar.native.Linux.x86_64.libstuff.so, for libstuff.so.gz
+	static private String flatten( String resourceName ) {
+		return Compression.of( resourceName ).strip
+			( resourceName.substring(1).replaceAll( "/", "." ) );
+	}
+
+	/*
+	  The resource's identity, as far as it is known without reading
+	  it: for a jar entry, its CRC and size from the jar's directory;
+	  for a plain file, its size and timestamp.  Null otherwise.
+	*/
+	static private String stamp( String resourceName ) {
+		URL url = ClasspathIndex.find( resourceName );
+		if( url == null )
+			return null;
+		try {
+			File jar = Extractor.localJar( url );
+			if( jar != null ) {
+				ZipDirectory.Entry e = ZipDirectory.of( jar ).get
+					( Extractor.jarEntryName( url ) );
+				return e == null ? null :
+					String.format( "%08x", e.crc ) + "-" + e.size;
+			}
+			if( "file".equals( url.getProtocol() ) ) {
+				File f = Extractor.toFile( url );
+				return f.isFile() ? f.length() + "-" + f.lastModified() :
+					null;
+			}
+		} catch( IOException ioe ) {
+			log.debug( "No stamp for " + resourceName + ": " + ioe );
+		}
+		return null;
+	}
+
+	/*
+	  The existing, intact entry for the resource, else null.  Given
+	  an index, we compare sizes and trust the name, which is the
+	  digest: the atomic publish means an entry that exists is
+	  complete.  Likewise given a reference file, which records the
+	  entry's size too.  Lacking both, the digest was computed from
+	  the resource itself, so existence suffices.  Nothing is hashed.
+	*/
+	static private File lookup( String resourceName, File cacheDir,
+								String digest, File ref,
+								NativeManifest.Entry entry ) {
+		long size = -1;
+		if( entry != null ) {
+			size = entry.uncompressedSize;
+		} else if( ref != null ) {
+			String[] fields = readRef( ref );
+			if( fields == null )
+				return null;
+			digest = fields[0];
+			size = Long.parseLong( fields[1] );
+		}
+		File cachedFile = cachedFile( resourceName, cacheDir, digest );
+		if( !cachedFile.isFile() )
+			return null;
+		if( size >= 0 && size != cachedFile.length() ) {
+			log.warn( "Cache entry corrupt, replacing: " + cachedFile );
+			return null;
+		}
+		return cachedFile;
+	}
+
+	// 'DIGEST SIZE', or null if unreadable
+	static private String[] readRef( File ref ) {
+		if( !ref.isFile() )
+			return null;
+		try {
+			String[] fields = new String
+				( Files.readAllBytes( ref.toPath() ), "US-ASCII" ).
+				trim().split( " " );
+			if( fields.length == 2 && fields[1].matches( "[0-9]+" ) )
+				return fields;
+		} catch( IOException ioe ) {
+			log.debug( "Unreadable " + ref + ": " + ioe );
+		}
+		return null;
+	}
+
+	/*
+	  Copy the resource to a temporary file in the cache dir,
+	  computing its digest as we go, and verifying that against any
+	  expected, and its size against the index's, if any: for a
+	  compressed resource the digest is of what was read, not what
+	  was written.  Then rename into place, under the name for that
+	  digest.  Racing writers (other VMs) all produce identical
+	  content, so whichever rename lands last is as good as any
+	  other.  Lastly, any reference file is written (again, aside
+	  and renamed), naming the entry for the next lookup.
+	*/
+	static private File publish( String resourceName, File cacheDir,
+								 String expectedDigest, File ref,
+								 NativeManifest.Entry entry,
+								 LoadTimings t ) throws IOException {
+		File tmpFile = new File( cacheDir, "." + flatten( resourceName ) +
+								 "-" + UUID.randomUUID() + ".tmp" );
+		log.debug( "Extracting " + resourceName + " to " + tmpFile );
+		try {
+			MessageDigest md = newMessageDigest();
+			long n = Extractor.extract( resourceName, tmpFile, md );
+			t.wrote( n );
+			String digest = toHex( md.digest() );
+			if( expectedDigest != null && !digest.equals( expectedDigest ) )
+				throw new IOException( "Resource changed during extraction: " +
+									   resourceName );
+			if( entry != null && entry.uncompressedSize >= 0 &&
+				n != entry.uncompressedSize )
+				throw new IOException( "Extracted " + n + " bytes, expected " +
+									   entry.uncompressedSize + ": " +
+									   resourceName );
+			File cachedFile = cachedFile( resourceName, cacheDir, digest );
+
+			// Set executable (x) flag to enable Java to load the native library
+			tmpFile.setReadable( true );
+			tmpFile.setExecutable( true );
+
+			move( tmpFile, cachedFile );
+			log.debug( "Published " + cachedFile );
+			if( ref != null ) {
+				Files.write( tmpFile.toPath(),
+							 (digest + " " + cachedFile.length() + "\n").
+							 getBytes( "US-ASCII" ) );
+				move( tmpFile, ref );
+			}
+			return cachedFile;
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	static private void move( File from, File to ) throws IOException {
+		try {
+			Files.move( from.toPath(), to.toPath(),
+						StandardCopyOption.ATOMIC_MOVE );
+		} catch( AtomicMoveNotSupportedException amnse ) {
+			Files.move( from.toPath(), to.toPath(),
+						StandardCopyOption.REPLACE_EXISTING );
+		}
+	}
+
+	static String digest( String resourceName ) throws IOException {
+		InputStream is = ClasspathIndex.open( resourceName );
+		if( is == null )
+			throw new IOException( "Resource missing: " + resourceName );
+		return digest( is );
+	}
+
+	static String digest( File f ) throws IOException {
+		return digest( new FileInputStream( f ) );
+	}
+
+	// Digest, and close, the supplied stream
+	static private String digest( InputStream is ) throws IOException {
+		MessageDigest md = newMessageDigest();
+		try {
+			byte[] buf = new byte[BUFFERSIZE];
+			int n;
+			while( (n = is.read( buf )) != -1 )
+				md.update( buf, 0, n );
+		} finally {
+			is.close();
+		}
+		return toHex( md.digest() );
+	}
+
+	static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance( DIGESTALGORITHM );
+		} catch( NoSuchAlgorithmException nsae ) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException( nsae );
+		}
+	}
+
+	static String toHex( byte[] bs ) {
+		StringBuilder sb = new StringBuilder( bs.length * 2 );
+		for( byte b : bs ) {
+			sb.append( HEX[(b >> 4) & 0xf] );
+			sb.append( HEX[b & 0xf] );
+		}
+		return sb.toString();
+	}
+
+	static private final String DIGESTALGORITHM = "SHA-256";
+
+	static private final int BUFFERSIZE = 64 * 1024;
+
+	static private final char[] HEX = "0123456789abcdef".toCharArray();
+
+	static private final Log log = LogFactory.getLog( ExtractionCache.class );
+}
+
+// eof
@@ -0,0 +1,212 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A lock, across processes, on the extraction of one cache entry (see
+ * ExtractionCache), so that of many VMs starting at once on one host,
+ * one extracts and the rest wait, then find the entry published.
+ * Without it, all would extract, all but one in vain.
+ *
+ * Primarily a FileChannel (i.e. OS, fcntl/LockFileEx) lock on a lock
+ * file alongside the entry.  The OS drops such a lock when its holder
+ * dies, however it dies, so there are no stale locks to break.  Where
+ * the file system cannot lock (some network mounts), we fall back to
+ * exclusive creation of a .pid file holding the owner's pid.  That
+ * one is broken if its owner is dead, or if older than STALE, by
+ * renaming it aside (atomic, so just one breaker wins).
+ *
+ * The lock is purely an economy.  Correctness does not depend on it:
+ * entries are published by atomic rename and are identical whoever
+ * writes them, so were two processes ever both to extract, say after
+ * a lock wrongly broken, the result is the same.  Lock files are left
+ * in place: deleting one some process may be waiting on would let a
+ * third lock a new file of the same name concurrently.
+ */
+final class ExtractionLock implements Closeable {
+
+	private ExtractionLock( FileChannel fc, FileLock lock, File pidFile ) {
+		this.fc = fc;
+		this.lock = lock;
+		this.pidFile = pidFile;
+	}
+
+	/**
+	 * Block until we hold the lock named by lockFile
+	 */
+	static ExtractionLock acquire( File lockFile ) throws IOException {
+		long start = System.nanoTime();
+		FileChannel fc = FileChannel.open
+			( lockFile.toPath(), StandardOpenOption.CREATE,
+			  StandardOpenOption.WRITE );
+		try {
+			while( true ) {
+				try {
+					FileLock lock = fc.lock();
+					if( log.isDebugEnabled() )
+						log.debug( "Locked " + lockFile + " after " +
+								   (System.nanoTime() - start) / 1000000 +
+								   " ms" );
+					// For the curious only
+					fc.truncate( 0 );
+					fc.write( ByteBuffer.wrap
+							  ( (Janitor.pid + "\n").getBytes
+								( StandardCharsets.UTF_8 ) ), 0 );
+					return new ExtractionLock( fc, lock, null );
+				} catch( OverlappingFileLockException ofle ) {
+					// Held by another loader in this very VM
+					pause();
+				}
+			}
+		} catch( IOException ioe ) {
+			fc.close();
+			log.debug( "No file locking for " + lockFile + ": " + ioe );
+			return acquirePidFile( new File( lockFile.getPath() + ".pid" ) );
+		}
+	}
+
+	static ExtractionLock acquirePidFile( File pidFile ) throws IOException {
+		byte[] pid = (Janitor.pid + "\n").getBytes( StandardCharsets.UTF_8 );
+		while( true ) {
+			if( pidFile.createNewFile() ) {
+				Files.write( pidFile.toPath(), pid );
+				return new ExtractionLock( null, null, pidFile );
+			}
+			String owner = readOwner( pidFile );
+			if( owner != null && isStale( pidFile, owner ) )
+				breakLock( pidFile, owner );
+			else
+				pause();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if( fc != null ) {
+			try {
+				lock.release();
+			} finally {
+				fc.close();
+			}
+		} else {
+			pidFile.delete();
+		}
+	}
+
+	static private String readOwner( File pidFile ) {
+		try {
+			return new String( Files.readAllBytes( pidFile.toPath() ),
+							   StandardCharsets.UTF_8 ).trim();
+		} catch( IOException ioe ) {
+			// Gone already, perhaps released
+			return null;
+		}
+	}
+
+	/*
+	  The owner is dead, or has held the lock implausibly long.  An
+	  owner yet to write its pid (empty file) is given time.
+	*/
+	static private boolean isStale( File pidFile, String owner ) {
+		long age = System.currentTimeMillis() - pidFile.lastModified();
+		if( age > STALE )
+			return true;
+		if( owner.isEmpty() )
+			return false;
+		try {
+			return Boolean.FALSE.equals
+				( Janitor.isAlive( Long.parseLong( owner ) ) );
+		} catch( NumberFormatException nfe ) {
+			return false;
+		}
+	}
+
+	/*
+	  Rename aside the lock of the given owner.  Should another have
+	  beaten us to it, and the file we moved be some new owner's
+	  lock, put it back.
+	*/
+	static private void breakLock( File pidFile, String owner ) {
+		File aside = new File( pidFile.getPath() + "-" + UUID.randomUUID() );
+		if( !pidFile.renameTo( aside ) )
+			return;
+		String moved = readOwner( aside );
+		if( owner.equals( moved ) ) {
+			log.warn( "Broke stale extraction lock " + pidFile +
+					  " of pid " + owner );
+			aside.delete();
+		} else if( !aside.renameTo( pidFile ) ) {
+			aside.delete();
+		}
+	}
+
+	static private void pause() throws IOException {
+		try {
+			Thread.sleep( 20 );
+		} catch( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted awaiting extraction lock" );
+		}
+	}
+
+	private final FileChannel fc;
+	private final FileLock lock;
+	private final File pidFile;
+
+	// Ten minutes, far longer than any extraction should take
+	static final long STALE = 10 * 60 * 1000L;
+
+	static private final Log log = LogFactory.getLog( ExtractionLock.class );
+}
+
+// eof
@@ -0,0 +1,445 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Copies a native library resource to a file.  Where the resource
+ * lives in a jar on local disk (the usual case), we bypass the class
+ * loader's stream entirely:
+ *
+ * - a STORED entry's bytes are copied straight from the jar's byte
+ * range, via FileChannel.transferTo, so never enter the Java heap.
+ *
+ * - a DEFLATED entry is inflated from the jar's raw bytes, through
+ * large buffers, with a single Inflater.
+ *
+ * A resource that is a plain file (exploded classpath) is likewise
+ * transferred channel to channel.  Anything else (nested jars, remote
+ * URLs) falls back to a plain stream copy.  In all cases the target
+ * is sized up front, and the achieved throughput logged.
+ *
+ * A resource named with a compression suffix (see Compression) is
+ * decompressed on the way out.  A chunked gzip resource (see
+ * ChunkedGzip) that can be mapped is decompressed in parallel.  That
+ * means a plain file, or a jar entry STORED: one the jar tool
+ * deflated is decompressed serially, its chunks unseen.
+ *
+ * Any digest requested is of the resource's bytes as stored, so
+ * compressed if the resource is.
+ */
+final class Extractor {
+
+	/**
+	 * @param resourceName an absolute classpath resource name
+	 *
+	 * @param target the file to create (or overwrite)
+	 *
+	 * @param md if non-null, updated with the resource's bytes
+	 *
+	 * @return the number of bytes written
+	 */
+	static long extract( String resourceName, File target, MessageDigest md )
+		throws IOException {
+		URL url = ClasspathIndex.find( resourceName );
+		if( url == null )
+			throw new IOException( "Resource missing: " + resourceName );
+		return extract( url, target, md );
+	}
+
+	static long extract( URL url, File target, MessageDigest md )
+		throws IOException {
+		long start = System.nanoTime();
+		Object event = Monitoring.beginExtract();
+		String how;
+		long n;
+		File jar = localJar( url );
+		ZipDirectory.Entry entry = null;
+		ZipDirectory zd = null;
+		if( jar != null ) {
+			try {
+				zd = ZipDirectory.of( jar );
+				entry = zd.get( jarEntryName( url ) );
+			} catch( IOException ioe ) {
+				// Unreadable by us, maybe not by the class loader
+				log.debug( "No directory for " + jar + ": " + ioe );
+				zd = null;
+			}
+		}
+		Compression c = Compression.of( url.getPath() );
+		if( c != Compression.NONE ) {
+			how = c.name().toLowerCase();
+			ByteBuffer bb = null;
+			if( c == Compression.GZIP )
+				bb = map( url, zd, entry );
+			if( bb != null && ChunkedGzip.isChunked( bb ) ) {
+				how = "chunked " + how;
+				n = copyChunked( bb, target, md );
+			} else {
+				n = copyCompressed( url, c, target, md );
+			}
+		} else if( entry != null && entry.isStored() ) {
+			how = "stored";
+			n = copyStored( zd, entry, target, md );
+		} else if( entry != null && entry.method == ZipDirectory.DEFLATED ) {
+			how = "inflated";
+			n = copyDeflated( zd, entry, target, md );
+		} else if( "file".equals( url.getProtocol() ) ) {
+			how = "file";
+			n = copyFile( toFile( url ), target, md );
+		} else {
+			how = "stream";
+			n = copyStream( url, target, md );
+		}
+		Monitoring.extracted( event, url, target, how, n );
+		if( log.isDebugEnabled() ) {
+			long nanos = System.nanoTime() - start;
+			double mbs = nanos == 0 ? 0 :
+				(n / (1024.0 * 1024)) / (nanos / 1e9);
+			log.debug( "Extracted " + url + " (" + how + "): " +
+					   n + " bytes in " + (nanos / 1000000) + " ms, " +
+					   String.format( "%.1f", mbs ) + " MB/s" );
+		}
+		return n;
+	}
+
+	/*
+	  For a 'jar:file:/path/to/x.jar!/entry' url, the jar file.  Null
+	  for anything else, including jars nested in jars.
+	*/
+	static File localJar( URL url ) {
+		if( !"jar".equals( url.getProtocol() ) )
+			return null;
+		String spec = url.getPath();
+		int sep = spec.indexOf( "!/" );
+		if( sep == -1 || spec.indexOf( "!/", sep + 2 ) != -1 )
+			return null;
+		try {
+			URL inner = new URL( spec.substring( 0, sep ) );
+			if( !"file".equals( inner.getProtocol() ) )
+				return null;
+			return toFile( inner );
+		} catch( IOException ioe ) {
+			return null;
+		}
+	}
+
+	static String jarEntryName( URL jarURL ) {
+		String spec = jarURL.getPath();
+		String name = spec.substring( spec.indexOf( "!/" ) + 2 );
+		try {
+			return new URI( "file:/" + name ).getPath().substring(1);
+		} catch( URISyntaxException use ) {
+			return name;
+		}
+	}
+
+	static File toFile( URL fileURL ) throws IOException {
+		try {
+			return new File( fileURL.toURI() );
+		} catch( URISyntaxException use ) {
+			return new File( fileURL.getPath() );
+		} catch( IllegalArgumentException iae ) {
+			throw new IOException( "Not a local file: " + fileURL );
+		}
+	}
+
+	static private long copyStored( ZipDirectory zd, ZipDirectory.Entry e,
+									File target, MessageDigest md )
+		throws IOException {
+		FileChannel src = FileChannel.open( zd.file().toPath(),
+											StandardOpenOption.READ );
+		try {
+			long offset = zd.dataOffset( e, src );
+			return copyRange( src, offset, e.size, target, md );
+		} finally {
+			src.close();
+		}
+	}
+
+	static private long copyFile( File f, File target, MessageDigest md )
+		throws IOException {
+		FileChannel src = FileChannel.open( f.toPath(),
+											StandardOpenOption.READ );
+		try {
+			return copyRange( src, 0, src.size(), target, md );
+		} finally {
+			src.close();
+		}
+	}
+
+	/*
+	  Copy length bytes at offset in src to target.  With no digest
+	  wanted, transferTo lets the kernel do the copy.  Otherwise we
+	  map the source range, and digest and write the mapped buffer,
+	  which again keeps the bytes off the Java heap.
+	*/
+	static private long copyRange( FileChannel src, long offset, long length,
+								   File target, MessageDigest md )
+		throws IOException {
+		FileChannel dst = open( target, length );
+		try {
+			long done = 0;
+			while( done < length ) {
+				long chunk = Math.min( length - done, MAPCHUNK );
+				if( md == null ) {
+					long n = src.transferTo( offset + done, chunk, dst );
+					if( n <= 0 )
+						throw new IOException( "Short transfer to " + target );
+					done += n;
+				} else {
+					MappedByteBuffer mbb = src.map
+						( FileChannel.MapMode.READ_ONLY, offset + done, chunk );
+					md.update( mbb.duplicate() );
+					writeFully( dst, mbb );
+					done += chunk;
+				}
+			}
+			return done;
+		} finally {
+			dst.close();
+		}
+	}
+
+	static private long copyDeflated( ZipDirectory zd, ZipDirectory.Entry e,
+									  File target, MessageDigest md )
+		throws IOException {
+		FileChannel src = FileChannel.open( zd.file().toPath(),
+											StandardOpenOption.READ );
+		Inflater inflater = new Inflater( true );
+		try {
+			long position = zd.dataOffset( e, src );
+			long remaining = e.compressedSize;
+			FileChannel dst = open( target, e.size );
+			try {
+				byte[] in = new byte[BUFFERSIZE];
+				byte[] out = new byte[BUFFERSIZE];
+				ByteBuffer inBB = ByteBuffer.wrap( in );
+				long done = 0;
+				while( !inflater.finished() ) {
+					if( inflater.needsInput() ) {
+						if( remaining == 0 )
+							throw new IOException( "Truncated entry: " + e.name );
+						inBB.clear();
+						inBB.limit( (int)Math.min( in.length, remaining ) );
+						int n = src.read( inBB, position );
+						if( n < 0 )
+							throw new IOException( "Unexpected EOF: " + e.name );
+						position += n;
+						remaining -= n;
+						inflater.setInput( in, 0, n );
+					}
+					int n = inflater.inflate( out );
+					if( n == 0 && inflater.needsDictionary() )
+						throw new IOException( "Bad entry: " + e.name );
+					if( n > 0 ) {
+						if( md != null )
+							md.update( out, 0, n );
+						writeFully( dst, ByteBuffer.wrap( out, 0, n ) );
+						done += n;
+					}
+				}
+				if( done != e.size )
+					throw new IOException( "Size mismatch: " + e.name );
+				return done;
+			} finally {
+				dst.close();
+			}
+		} catch( DataFormatException dfe ) {
+			throw new IOException( "Bad entry: " + e.name, dfe );
+		} finally {
+			inflater.end();
+			src.close();
+		}
+	}
+
+	/*
+	  The resource's bytes, as stored, mapped into memory.  Possible
+	  only for STORED jar entries and plain files, else null.
+	*/
+	static private ByteBuffer map( URL url, ZipDirectory zd,
+								   ZipDirectory.Entry e ) throws IOException {
+		long offset, length;
+		FileChannel fc;
+		if( e != null && e.isStored() ) {
+			fc = FileChannel.open( zd.file().toPath(),
+								   StandardOpenOption.READ );
+			offset = zd.dataOffset( e, fc );
+			length = e.size;
+		} else if( "file".equals( url.getProtocol() ) ) {
+			fc = FileChannel.open( toFile( url ).toPath(),
+								   StandardOpenOption.READ );
+			offset = 0;
+			length = fc.size();
+		} else {
+			return null;
+		}
+		try {
+			if( length > Integer.MAX_VALUE )
+				return null;
+			return fc.map( FileChannel.MapMode.READ_ONLY, offset, length );
+		} finally {
+			// The mapping outlives the channel
+			fc.close();
+		}
+	}
+
+	static private long copyChunked( ByteBuffer bb, File target,
+									 MessageDigest md ) throws IOException {
+		if( md != null )
+			md.update( bb.duplicate() );
+		FileChannel dst = open( target, ChunkedGzip.uncompressedSize( bb ) );
+		try {
+			return ChunkedGzip.decompress( bb, dst );
+		} finally {
+			dst.close();
+		}
+	}
+
+	/*
+	  Sequential decompression of a stream.  Here any digest is of
+	  the compressed bytes, i.e. of the resource as stored, so says
+	  nothing of what was written.  A decoder may stop before the end
+	  of its input, e.g. at what it takes for trailing garbage, having
+	  written only part of the library.  So input left over is an
+	  error here, and ExtractionCache checks the size written against
+	  the index.
+	*/
+	static private long copyCompressed( URL url, Compression c, File target,
+										MessageDigest md ) throws IOException {
+		InputStream is = url.openStream();
+		if( md != null )
+			is = new DigestInputStream( is, md );
+		InputStream decompressed;
+		try {
+			decompressed = c.decompress( is );
+		} catch( IOException ioe ) {
+			is.close();
+			throw ioe;
+		}
+		try {
+			long n = copyStream( decompressed, target, null );
+			if( is.read() != -1 )
+				throw new IOException( "Data after compressed stream: " +
+									   url );
+			return n;
+		} finally {
+			decompressed.close();
+		}
+	}
+
+	static private long copyStream( URL url, File target, MessageDigest md )
+		throws IOException {
+		InputStream is = url.openStream();
+		try {
+			return copyStream( is, target, md );
+		} finally {
+			is.close();
+		}
+	}
+
+	static private long copyStream( InputStream is, File target,
+									MessageDigest md ) throws IOException {
+		FileChannel dst = open( target, -1 );
+		try {
+			byte[] buf = new byte[BUFFERSIZE];
+			long done = 0;
+			int n;
+			while( (n = is.read( buf )) != -1 ) {
+				if( md != null )
+					md.update( buf, 0, n );
+				writeFully( dst, ByteBuffer.wrap( buf, 0, n ) );
+				done += n;
+			}
+			return done;
+		} finally {
+			dst.close();
+		}
+	}
+
+	/*
+	  Open target for writing, truncating any existing content.  Given
+	  a known size, extend the file to that size up front, so the
+	  filesystem need not grow it write by write.
+	*/
+	static private FileChannel open( File target, long size )
+		throws IOException {
+		RandomAccessFile raf = new RandomAccessFile( target, "rw" );
+		try {
+			raf.setLength( 0 );
+			if( size > 0 )
+				raf.setLength( size );
+		} catch( IOException ioe ) {
+			raf.close();
+			throw ioe;
+		}
+		return raf.getChannel();
+	}
+
+	static private void writeFully( FileChannel fc, ByteBuffer bb )
+		throws IOException {
+		while( bb.hasRemaining() )
+			fc.write( bb );
+	}
+
+	static private final int BUFFERSIZE = 1024 * 1024;
+
+	static private final long MAPCHUNK = 64L * 1024 * 1024;
+
+	static private final Log log = LogFactory.getLog( Extractor.class );
+}
+
+// eof
@@ -0,0 +1,206 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Loading a library where it lies.  From an exploded classpath (IDEs,
+ * mvn exec, unpacked deployments) a bundled library is already a
+ * plain file on local disk, and copying it to the tmpdir first gains
+ * nothing.  It can be System.load-ed in place if it is
+ *
+ * not compressed (else we must inflate it somewhere),
+ *
+ * readable and executable by us,
+ *
+ * not on a filesystem mounted noexec (Linux only, per
+ * /proc/self/mountinfo; elsewhere assumed fine).
+ *
+ * Else, and if $prefix.$libName.alwaysExtract is defined, it is
+ * extracted as usual.  See NativeLoader.findNativeLibrary.
+ *
+ * The same goes for any libraries it needs bundled alongside it (see
+ * Dependencies).  Where each is loadable in place and named as its
+ * soname, the exploded folder serves as is.  Else they are laid out,
+ * by link or copy, in the tmpdir, as for an extracted library.
+ */
+final class InPlace {
+
+	private InPlace() {
+	}
+
+	/**
+	 * @return the resource's file, if loadable as is, else null
+	 */
+	static File file( String resourceName ) {
+		if( Compression.of( resourceName ) != Compression.NONE )
+			return null;
+		URL url = ClasspathIndex.find( resourceName );
+		if( url == null || !"file".equals( url.getProtocol() ) )
+			return null;
+		File f;
+		try {
+			f = Extractor.toFile( url ).getCanonicalFile();
+		} catch( IOException ioe ) {
+			return null;
+		}
+		if( !f.isFile() || !f.canRead() )
+			return null;
+		if( !f.canExecute() ) {
+			log.debug( "Not executable, so extracting: " + f );
+			return null;
+		}
+		if( isNoExec( f ) ) {
+			log.debug( "On a noexec mount, so extracting: " + f );
+			return null;
+		}
+		return f;
+	}
+
+	/**
+	 * @return true if f is on a filesystem mounted noexec
+	 */
+	static boolean isNoExec( File f ) {
+		return isNoExec( f, Mounts.INSTANCE );
+	}
+
+	/**
+	 * @param mounts as from parse, last mounted first
+	 */
+	static boolean isNoExec( File f, List<Mount> mounts ) {
+		String path = f.getPath();
+		Mount best = null;
+		for( Mount m : mounts ) {
+			if( isUnder( path, m.point ) &&
+				(best == null || m.point.length() > best.point.length()) )
+				best = m;
+		}
+		return best != null && best.noexec;
+	}
+
+	static private boolean isUnder( String path, String point ) {
+		return point.equals( "/" ) || path.equals( point ) ||
+			path.startsWith( point + "/" );
+	}
+
+	/*
+	  Lines of /proc/self/mountinfo are e.g.
+
+	  36 35 98:0 /mnt1 /mnt/parent rw,noatime,noexec master:1 - ext3 ...
+
+	  the mount point being the fifth field, its options the sixth.
+	  Later mounts over the same point shadow earlier, so last wins.
+	*/
+	static List<Mount> parse( List<String> lines ) {
+		List<Mount> result = new ArrayList<Mount>();
+		for( String line : lines ) {
+			String[] fields = line.split( " " );
+			if( fields.length < 6 )
+				continue;
+			String point = unescape( fields[4] );
+			boolean noexec = false;
+			for( String option : fields[5].split( "," ) )
+				if( option.equals( "noexec" ) )
+					noexec = true;
+			result.add( 0, new Mount( point, noexec ) );
+		}
+		return result;
+	}
+
+	// Spaces, tabs etc in mount points appear as octal escapes, \040
+	static private String unescape( String s ) {
+		if( s.indexOf( '\\' ) == -1 )
+			return s;
+		StringBuilder sb = new StringBuilder( s.length() );
+		for( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt( i );
+			if( c == '\\' && i + 3 < s.length() ) {
+				try {
+					sb.append( (char)Integer.parseInt
+							   ( s.substring( i+1, i+4 ), 8 ) );
+					i += 3;
+					continue;
+				} catch( NumberFormatException nfe ) {
+				}
+			}
+			sb.append( c );
+		}
+		return sb.toString();
+	}
+
+	static final class Mount {
+		Mount( String point, boolean noexec ) {
+			this.point = point;
+			this.noexec = noexec;
+		}
+		final String point;
+		final boolean noexec;
+	}
+
+	static private class Mounts {
+		static final List<Mount> INSTANCE = read();
+	}
+
+	static private List<Mount> read() {
+		File f = new File( "/proc/self/mountinfo" );
+		if( !f.isFile() )
+			return Collections.emptyList();
+		try {
+			return parse( Files.readAllLines( f.toPath(),
+											  StandardCharsets.UTF_8 ) );
+		} catch( IOException ioe ) {
+			log.debug( "Cannot read " + f + ": " + ioe );
+			return Collections.emptyList();
+		}
+	}
+
+	static private final Log log = LogFactory.getLog( InPlace.class );
+}
+
+// eof
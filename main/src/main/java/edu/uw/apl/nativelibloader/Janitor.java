@@ -0,0 +1,415 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Cleans up the uniquely named extractions (those not in a cache)
+ * left behind by VMs which did not exit cleanly.  deleteOnExit never
+ * runs on a SIGKILL, an OOM kill or a crash, so hosts running many
+ * VMs would see their temp dirs fill with libfoo.so-UUID files.
+ *
+ * Each VM (strictly, each NativeLoader class) has a session id.  Its
+ * extractions are named NAME-SESSION-N, NAME being the flattened
+ * resource name (com.foo.native.Linux.x86_64.libfoo.so), and before
+ * the first of them lands in some directory, the VM writes a lease
+ * there: .nativeloader-SESSION.lease, holding its pid.  After an
+ * extraction we schedule a sweep of that directory, run on a single
+ * low-priority daemon thread, so never holding up load().  A sweep
+ * deletes
+ *
+ * any NAME-SESSION-N whose lease names a process no longer alive, or
+ * whose lease is missing and which is older than the grace period,
+ *
+ * any NAME-UUID (as named by earlier versions) older than the grace
+ * period,
+ *
+ * and leases of dead processes, once their extractions are gone.
+ *
+ * A directory is swept at most once per interval, by whichever VM
+ * first finds it due (a .nativeloader-sweep file's modification time
+ * records the last sweep), and a sweep deletes at most so many files.
+ * A clean exit deletes the session's own files and lease, from a
+ * single shutdown hook.  Settings, as system properties:
+ *
+ * edu.uw.apl.nativelibloader.janitor.disabled - no sweeps at all,
+ *
+ * edu.uw.apl.nativelibloader.janitor.interval - seconds between
+ * sweeps of a directory, default 600,
+ *
+ * edu.uw.apl.nativelibloader.janitor.max - deletions per sweep,
+ * default 256.
+ */
+final class Janitor {
+
+	private Janitor() {
+	}
+
+	/**
+	 * A unique name, based on base, for an extraction into dir,
+	 * owned by this VM.  Leases dir for this VM if not already,
+	 * creating dir if need be.
+	 */
+	static File newFile( File dir, String base ) throws IOException {
+		lease( dir );
+		return new File( dir, base + "-" + session + "-" +
+						 counter.incrementAndGet() );
+	}
+
+	/**
+	 * Sweep dir, in the background, if due
+	 */
+	static void schedule( final File dir ) {
+		if( Boolean.getBoolean( PROPERTY + ".disabled" ) )
+			return;
+		long now = System.currentTimeMillis();
+		Long next = nextSweeps.get( dir );
+		if( next != null && now < next )
+			return;
+		nextSweeps.put( dir, now + interval() );
+		try {
+			Sweeper.INSTANCE.execute( () -> sweepIfDue( dir ) );
+		} catch( RuntimeException re ) {
+			log.debug( "Janitor: " + re );
+		}
+	}
+
+	static private void lease( File dir ) throws IOException {
+		if( leased.containsKey( dir ) )
+			return;
+		synchronized( leased ) {
+			if( leased.containsKey( dir ) )
+				return;
+			if( !dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory() )
+				throw new IOException( "Cannot create dir: " + dir );
+			File lease = leaseFile( dir, session );
+			Files.write( lease.toPath(),
+						 (pid + "\n").getBytes( StandardCharsets.UTF_8 ) );
+			if( leased.isEmpty() )
+				Runtime.getRuntime().addShutdownHook
+					( new Thread( Janitor::release,
+								  "NativeLoader-janitor-exit" ) );
+			leased.put( dir, lease );
+		}
+	}
+
+	// On a clean exit, remove all we can of our own
+	static private void release() {
+		for( File dir : leased.keySet() ) {
+			boolean all = true;
+			File[] fs = dir.listFiles();
+			if( fs != null ) {
+				for( File f : fs ) {
+					Matcher m = OURS.matcher( f.getName() );
+					if( m.matches() && session.equals( m.group( 1 ) ) )
+						all &= FileUtils.deleteQuietly( f );
+				}
+			}
+			// Leave the lease if any files remain (e.g. Windows, where
+			// a loaded dll cannot be deleted), for a later sweep
+			if( all )
+				leased.get( dir ).delete();
+		}
+	}
+
+	static private void sweepIfDue( File dir ) {
+		File marker = new File( dir, ".nativeloader-sweep" );
+		long now = System.currentTimeMillis();
+		if( marker.exists() && now - marker.lastModified() < interval() )
+			return;
+		try {
+			if( !marker.createNewFile() )
+				marker.setLastModified( now );
+			sweep( dir, now - GRACE, Integer.getInteger( PROPERTY + ".max",
+														  256 ) );
+		} catch( IOException ioe ) {
+			log.debug( "Janitor: " + dir + ": " + ioe );
+		}
+	}
+
+	/**
+	 * @param olderThan the time before which unleased files may be
+	 * taken as orphaned
+	 *
+	 * @return the number of files (or directories) deleted
+	 */
+	static int sweep( File dir, long olderThan, int max ) {
+		File[] fs = dir.listFiles();
+		if( fs == null )
+			return 0;
+		int deleted = 0;
+		Map<String,Boolean> dead = new HashMap<String,Boolean>();
+		Set<String> kept = new HashSet<String>();
+		for( File f : fs ) {
+			if( deleted >= max )
+				return deleted;
+			String name = f.getName();
+			Matcher m = OURS.matcher( name );
+			boolean orphan;
+			if( m.matches() ) {
+				String owner = m.group( 1 );
+				if( owner.equals( session ) )
+					continue;
+				Boolean d = dead.computeIfAbsent
+					( owner, s -> isDead( dir, s ) );
+				if( d == null )
+					orphan = f.lastModified() < olderThan;
+				else
+					orphan = d;
+				if( !orphan )
+					kept.add( owner );
+			} else if( LEGACY.matcher( name ).matches() ) {
+				orphan = f.lastModified() < olderThan;
+			} else {
+				continue;
+			}
+			if( orphan ) {
+				if( FileUtils.deleteQuietly( f ) ) {
+					log.debug( "Janitor: deleted " + f );
+					deleted++;
+				} else if( m.matches() ) {
+					kept.add( m.group( 1 ) );
+				}
+			}
+		}
+		// Leases of the dead, once nothing of theirs remains
+		for( File f : fs ) {
+			Matcher m = LEASE.matcher( f.getName() );
+			if( !m.matches() )
+				continue;
+			String owner = m.group( 1 );
+			if( owner.equals( session ) || kept.contains( owner ) )
+				continue;
+			Boolean d = dead.computeIfAbsent
+				( owner, s -> isDead( dir, s ) );
+			if( Boolean.TRUE.equals( d ) && f.delete() )
+				deleted++;
+		}
+		return deleted;
+	}
+
+	/*
+	  True if the session's lease names a process no longer alive.
+	  False if alive, or we cannot tell.  Null if no lease at all.
+	*/
+	static private Boolean isDead( File dir, String session ) {
+		File lease = leaseFile( dir, session );
+		long pid;
+		try {
+			pid = Long.parseLong( new String
+								  ( Files.readAllBytes( lease.toPath() ),
+									StandardCharsets.UTF_8 ).trim() );
+		} catch( IOException ioe ) {
+			return lease.exists() ? Boolean.FALSE : null;
+		} catch( NumberFormatException nfe ) {
+			return Boolean.FALSE;
+		}
+		Boolean alive = isAlive( pid );
+		return alive == null ? Boolean.FALSE : !alive;
+	}
+
+	/*
+	  Via ProcessHandle (Java 9+), found reflectively as we compile
+	  against an older platform, else /proc.  Null if we cannot tell.
+	*/
+	static Boolean isAlive( long pid ) {
+		try {
+			Class<?> c = Class.forName( "java.lang.ProcessHandle" );
+			Method of = c.getMethod( "of", long.class );
+			Optional<?> ph = (Optional<?>)of.invoke( null, pid );
+			if( !ph.isPresent() )
+				return Boolean.FALSE;
+			Method isAlive = c.getMethod( "isAlive" );
+			return (Boolean)isAlive.invoke( ph.get() );
+		} catch( Exception e ) {
+		}
+		File proc = new File( "/proc/self" );
+		if( proc.exists() )
+			return new File( "/proc/" + pid ).exists();
+		return null;
+	}
+
+	static private long currentPid() {
+		try {
+			Class<?> c = Class.forName( "java.lang.ProcessHandle" );
+			Object self = c.getMethod( "current" ).invoke( null );
+			return (Long)c.getMethod( "pid" ).invoke( self );
+		} catch( Exception e ) {
+		}
+		try {
+			File self = new File( "/proc/self" ).getCanonicalFile();
+			return Long.parseLong( self.getName() );
+		} catch( Exception e ) {
+		}
+		// pid@host, by convention if not by spec
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		return Long.parseLong( name.substring( 0, name.indexOf( '@' ) ) );
+	}
+
+	/**
+	 * After a restore from a checkpoint: take a new session and pid,
+	 * and lease afresh, under those, every directory leased before.
+	 * The old session's lease names a process now gone, so its files
+	 * are soon swept: adopt any still wanted.
+	 */
+	static void renew() {
+		synchronized( leased ) {
+			session = UUID.randomUUID().toString();
+			pid = currentPid();
+			for( File dir : leased.keySet() ) {
+				if( !dir.isDirectory() ) {
+					leased.remove( dir );
+					continue;
+				}
+				File lease = leaseFile( dir, session );
+				try {
+					Files.write( lease.toPath(), (pid + "\n").getBytes
+								 ( StandardCharsets.UTF_8 ) );
+					leased.put( dir, lease );
+				} catch( IOException ioe ) {
+					log.debug( "Janitor: cannot lease " + dir + ": " + ioe );
+				}
+			}
+		}
+	}
+
+	/**
+	 * A file of an earlier session of ours, re-linked (no copy) under
+	 * our current session, so not swept as the earlier's is.  f itself
+	 * if not of an earlier session, or if the link fails.
+	 */
+	static File adopt( File f ) {
+		Matcher m = OURS.matcher( f.getName() );
+		if( !m.matches() || m.group( 1 ).equals( session ) )
+			return f;
+		String base = f.getName().substring( 0, m.start( 1 ) - 1 );
+		try {
+			File result = newFile( f.getParentFile(), base );
+			Files.createLink( result.toPath(), f.toPath() );
+			return result;
+		} catch( IOException | UnsupportedOperationException e ) {
+			log.debug( "Janitor: cannot adopt " + f + ": " + e );
+			return f;
+		}
+	}
+
+	static private File leaseFile( File dir, String session ) {
+		return new File( dir, ".nativeloader-" + session + ".lease" );
+	}
+
+	static private long interval() {
+		return Long.getLong( PROPERTY + ".interval", 600 ) * 1000;
+	}
+
+	// One low-priority daemon thread, created on first sweep
+	static private class Sweeper {
+		static final Executor INSTANCE =
+			Executors.newSingleThreadExecutor( r -> {
+					Thread t = new Thread( r, "NativeLoader-janitor" );
+					t.setDaemon( true );
+					t.setPriority( Thread.MIN_PRIORITY );
+					return t;
+				} );
+	}
+
+	static final String PROPERTY = "edu.uw.apl.nativelibloader.janitor";
+
+	/*
+	  Not final: a VM restored from a checkpoint (see Crac) is a new
+	  process, maybe one of many restored from the same image, so
+	  takes a new session and pid.
+	*/
+	static volatile String session = UUID.randomUUID().toString();
+
+	static volatile long pid = currentPid();
+
+	// An hour, ample time between an extraction and its System.load
+	static private final long GRACE = 60 * 60 * 1000L;
+
+	static private final String UUIDRE =
+		"[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}";
+
+	/*
+	  Only names of our making: flattened resource names, so all with
+	  '.native.' in them.  Others' files in a shared temp dir may well
+	  end in UUIDs too.
+	*/
+	static final Pattern OURS = Pattern.compile
+		( ".+\\.native\\..+-(" + UUIDRE + ")-[0-9]+" );
+
+	static final Pattern LEGACY = Pattern.compile
+		( ".+\\.native\\..+-" + UUIDRE );
+
+	static private final Pattern LEASE = Pattern.compile
+		( "\\.nativeloader-(" + UUIDRE + ")\\.lease" );
+
+	static private final AtomicLong counter = new AtomicLong();
+
+	static private final ConcurrentMap<File,File> leased =
+		new ConcurrentHashMap<File,File>();
+
+	static private final ConcurrentMap<File,Long> nextSweeps =
+		new ConcurrentHashMap<File,Long>();
+
+	static private final Log log = LogFactory.getLog( Janitor.class );
+}
+
+// eof
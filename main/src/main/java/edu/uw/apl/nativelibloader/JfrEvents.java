@@ -0,0 +1,161 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.net.URL;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Our Flight Recorder events, so that native library loading shows
+ * up in recordings alongside class loading, GC and the rest of VM
+ * startup.  Only touched by Monitoring, and only once it has seen
+ * Flight Recorder up, so that we still run on VMs without jdk.jfr,
+ * and never start it ourselves.
+ *
+ * Each event is then cheap to create when not enabled in the
+ * recording: begin and commit do next to nothing.
+ */
+final class JfrEvents {
+
+	static Object beginLoad() {
+		Load e = new Load();
+		if( !e.isEnabled() )
+			return null;
+		e.begin();
+		return e;
+	}
+
+	static void commitLoad( Object event, Library library, LoadTimings t ) {
+		Load e = (Load)event;
+		e.prefix = library.prefix;
+		e.libName = library.libName;
+		File f = library.file;
+		e.path = f == null ? null : f.getPath();
+		e.configNanos = t.config;
+		e.lookupNanos = t.lookup;
+		e.extractNanos = t.extract;
+		e.bytes = t.bytes;
+		e.linkNanos = t.link;
+		e.commit();
+	}
+
+	static Object beginExtract() {
+		Extract e = new Extract();
+		if( !e.isEnabled() )
+			return null;
+		e.begin();
+		return e;
+	}
+
+	static void commitExtract( Object event, URL url, File target,
+							   String method, long bytes ) {
+		Extract e = (Extract)event;
+		e.resource = url.toString();
+		e.target = target.getPath();
+		e.method = method;
+		e.bytes = bytes;
+		e.commit();
+	}
+
+	@Name( "edu.uw.apl.nativelibloader.Load" )
+	@Label( "Native Library Load" )
+	@Category( { "Java Application", "Native Libraries" } )
+	@Description( "A load of a native library by NativeLoader" )
+	static class Load extends Event {
+		@Label( "Prefix" )
+		String prefix;
+
+		@Label( "Library Name" )
+		String libName;
+
+		@Label( "Path" )
+		String path;
+
+		@Label( "Configuration" )
+		@Timespan( Timespan.NANOSECONDS )
+		long configNanos;
+
+		@Label( "Lookup" )
+		@Timespan( Timespan.NANOSECONDS )
+		long lookupNanos;
+
+		@Label( "Extraction" )
+		@Timespan( Timespan.NANOSECONDS )
+		long extractNanos;
+
+		@Label( "Bytes" )
+		@DataAmount( DataAmount.BYTES )
+		long bytes;
+
+		@Label( "Link" )
+		@Description( "Time in System.load" )
+		@Timespan( Timespan.NANOSECONDS )
+		long linkNanos;
+	}
+
+	@Name( "edu.uw.apl.nativelibloader.Extract" )
+	@Label( "Native Library Extraction" )
+	@Category( { "Java Application", "Native Libraries" } )
+	@Description( "A native library resource written to a file" )
+	@StackTrace( false )
+	static class Extract extends Event {
+		@Label( "Resource" )
+		String resource;
+
+		@Label( "Target" )
+		String target;
+
+		@Label( "Method" )
+		String method;
+
+		@Label( "Bytes" )
+		@DataAmount( DataAmount.BYTES )
+		long bytes;
+	}
+}
+
+// eof
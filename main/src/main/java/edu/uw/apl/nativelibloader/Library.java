@@ -0,0 +1,102 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The registry entry for a single prefix/libName pair, as held by
+ * {@link NativeLoader}.  Created on first request and never removed.
+ *
+ * The 'loaded' flag is volatile, so that an already loaded library
+ * can be recognised without locking.  Loading itself is done under
+ * the entry's own lock, so only requests for the same library wait
+ * on each other.  A ReentrantLock, not a monitor, so that a virtual
+ * thread blocked in extraction I/O does not pin its carrier.
+ */
+final class Library {
+
+	Library( String prefix, String libName ) {
+		this.prefix = prefix;
+		this.libName = libName;
+	}
+
+	@Override
+	public String toString() {
+		return prefix + "-" + libName;
+	}
+
+	final String prefix;
+	final String libName;
+
+	final ReentrantLock lock = new ReentrantLock();
+
+	// Written under lock, read anywhere
+	volatile boolean loaded;
+
+	// The file handed to System.load, null if external or disabled
+	volatile File file;
+
+	// Digest of the payload, if known, and whether it was found a
+	// duplicate of another library's (see Payloads)
+	volatile String digest;
+	volatile boolean deduplicated;
+
+	// How long the load took, by phase. Null until loaded
+	volatile LoadTimings timings;
+
+	// A recent failure to find the library, rethrown until failedUntil
+	volatile IllegalStateException failure;
+	volatile long failedUntil;
+
+	// What the last resolve prepared (see NativeSymbols), if any
+	volatile NativeLoader.Linkage resolved;
+
+	// A preparation started ahead of the load (see Profile), if any
+	final AtomicReference<CompletableFuture<NativeLoader.Linkage>> prefetch =
+		new AtomicReference<CompletableFuture<NativeLoader.Linkage>>();
+
+	// The async load in progress, if any
+	final AtomicReference<CompletableFuture<Void>> pending =
+		new AtomicReference<CompletableFuture<Void>>();
+}
+
+// eof
@@ -0,0 +1,106 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Finds libraries in directories outside the classpath, for the
+ * LIBPATH and SYSTEM sources of the resolution chain (see
+ * Configuration.Source).  java.library.path is fixed for the life of
+ * the VM, so its directories are listed once, on first use, into an
+ * index of file name to (first) file.  Explicitly configured system
+ * directories are few, so are just probed.
+ */
+final class LibraryPath {
+
+	private LibraryPath() {
+	}
+
+	/**
+	 * @return libName's file in java.library.path, or null
+	 */
+	static File find( String libName ) {
+		Map<String,File> index = Index.INSTANCE;
+		File result = index.get( System.mapLibraryName( libName ) );
+		if( result == null && OSInfo.getOSName().equals( "Mac" ) )
+			result = index.get( "lib" + libName + ".jnilib" );
+		return result;
+	}
+
+	/**
+	 * @return libName's file in the first of dirs having it, or null
+	 */
+	static File find( String libName, List<File> dirs ) {
+		String name = System.mapLibraryName( libName );
+		for( File dir : dirs ) {
+			File f = new File( dir, name );
+			if( f.isFile() )
+				return f.getAbsoluteFile();
+		}
+		return null;
+	}
+
+	static Map<String,File> index( String path ) {
+		Map<String,File> result = new HashMap<String,File>();
+		if( path == null )
+			return result;
+		for( String s : path.split( File.pathSeparator ) ) {
+			if( s.isEmpty() )
+				continue;
+			File dir = new File( s ).getAbsoluteFile();
+			File[] fs = dir.listFiles();
+			if( fs == null )
+				continue;
+			for( File f : fs )
+				if( !result.containsKey( f.getName() ) && f.isFile() )
+					result.put( f.getName(), f );
+		}
+		return result;
+	}
+
+	static private class Index {
+		static final Map<String,File> INSTANCE =
+			index( System.getProperty( "java.library.path" ) );
+	}
+}
+
+// eof
@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Phase timings for one load of one library, taken as a series of
+ * laps: config, lookup, extract, link.  Filled in under the library's
+ * lock, then published (via Library.timings, a volatile) once the
+ * load completes, so never seen part-written.
+ */
+final class LoadTimings {
+
+	LoadTimings() {
+		last = System.nanoTime();
+		event = Monitoring.beginLoad();
+	}
+
+	// Nanoseconds since the previous lap (or construction)
+	long lap() {
+		long now = System.nanoTime();
+		long result = now - last;
+		last = now;
+		return result;
+	}
+
+	private long last;
+
+	long config, lookup, extract, link;
+
+	/*
+	  Bytes written materializing the file(s): none for a cache hit,
+	  an in-place load, or a dedup link.  Added to by wrote, maybe
+	  from several threads, as when dependencies are extracted.
+	*/
+	long bytes;
+
+	synchronized void wrote( long n ) {
+		if( this != NONE )
+			bytes += n;
+	}
+
+	// The JFR event in progress, if recording
+	final Object event;
+
+	static final LoadTimings NONE = new LoadTimings( null );
+
+	private LoadTimings( Object event ) {
+		this.event = event;
+	}
+}
+
+// eof
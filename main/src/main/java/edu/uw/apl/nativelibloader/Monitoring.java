@@ -0,0 +1,181 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Where load timings go once taken: to the library's registry entry
+ * (for the MXBean), and to Flight Recorder events if recording.
+ *
+ * The JFR events live in JfrEvents, which we touch only once Flight
+ * Recorder is up (some recording has been started): merely creating
+ * an event would otherwise start it, at a cost of hundreds of
+ * milliseconds, and to no end.  The MXBean is registered on the
+ * first load after system property edu.uw.apl.nativelibloader.jmx
+ * is defined.  With neither, the cost is a few System.nanoTime calls
+ * per load, and none at all for already loaded libraries.
+ */
+final class Monitoring {
+
+	static Object beginLoad() {
+		return jfrInitialized() ? JfrEvents.beginLoad() : null;
+	}
+
+	static void loaded( Library library, LoadTimings t ) {
+		library.timings = t;
+		if( t.event != null )
+			JfrEvents.commitLoad( t.event, library, t );
+		if( !registered.get() &&
+			System.getProperty( JMXPROPERTY ) != null )
+			register();
+	}
+
+	static Object beginExtract() {
+		return jfrInitialized() ? JfrEvents.beginExtract() : null;
+	}
+
+	static void extracted( Object event, URL url, File target,
+						   String method, long bytes ) {
+		if( event != null )
+			JfrEvents.commitExtract( event, url, target, method, bytes );
+	}
+
+	static private void register() {
+		if( !registered.compareAndSet( false, true ) )
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean
+				( new Bean(), new ObjectName( NativeLoaderMXBean.OBJECTNAME ) );
+		} catch( Exception e ) {
+			log.warn( "MXBean registration: " + e );
+		}
+	}
+
+	/*
+	  FlightRecorder.isInitialized, reflectively, so that we still run
+	  on VMs without jdk.jfr.  Once true, it stays so.
+	*/
+	static private boolean jfrInitialized() {
+		if( jfrUp )
+			return true;
+		if( IS_INITIALIZED == null )
+			return false;
+		try {
+			return jfrUp = (Boolean)IS_INITIALIZED.invoke( null );
+		} catch( Exception e ) {
+			return false;
+		}
+	}
+
+	static private Method isInitialized() {
+		try {
+			return Class.forName( "jdk.jfr.FlightRecorder", false,
+								  Monitoring.class.getClassLoader() ).
+				getMethod( "isInitialized" );
+		} catch( Throwable t ) {
+			return null;
+		}
+	}
+
+	static class Bean implements NativeLoaderMXBean {
+		@Override
+		public List<LoadedLibrary> getLibraries() {
+			List<LoadedLibrary> result = new ArrayList<LoadedLibrary>();
+			for( Library l : NativeLoader.libraries() )
+				if( l.loaded )
+					result.add( new LoadedLibrary( l, l.timings ) );
+			return result;
+		}
+
+		@Override
+		public int getLoadedCount() {
+			int result = 0;
+			for( Library l : NativeLoader.libraries() )
+				if( l.loaded )
+					result++;
+			return result;
+		}
+
+		@Override
+		public long getTotalLoadNanos() {
+			long result = 0;
+			for( LoadedLibrary l : getLibraries() )
+				result += l.getTotalNanos();
+			return result;
+		}
+
+		@Override
+		public long getDedupHits() {
+			return Payloads.hits();
+		}
+
+		@Override
+		public long getDedupBytesSaved() {
+			return Payloads.bytesSaved();
+		}
+
+		@Override
+		public void refreshConfiguration() {
+			NativeLoader.refreshConfiguration();
+		}
+	}
+
+	static final String JMXPROPERTY = "edu.uw.apl.nativelibloader.jmx";
+
+	static private final Method IS_INITIALIZED = isInitialized();
+
+	static private volatile boolean jfrUp;
+
+	static private final AtomicBoolean registered = new AtomicBoolean();
+
+	static private final Log log = LogFactory.getLog( Monitoring.class );
+}
+
+// eof
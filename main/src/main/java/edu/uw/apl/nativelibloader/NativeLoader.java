@@ -34,14 +34,21 @@
 package edu.uw.apl.nativelibloader;
 
 import java.io.File;
-import java.io.InputStream;
 import java.io.IOException;
-import java.util.Properties;
-import java.util.UUID;
-import java.util.HashSet;
-import java.util.Set;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -71,11 +78,8 @@ public class NativeLoader {
 	 * A convenience helper for the primary entry point, where the
 	 * group name is derived from a class's own package name
 	 */
-	static public synchronized void load( Class c,
-										  String libName ) 
-		throws IOException {
-		String package_ = c.getPackage().getName();
-		load( package_, libName );
+	static public void load( Class c, String libName ) throws IOException {
+		load( packageNames.get( c ), libName );
 	}
 	
 	/*
@@ -93,127 +97,478 @@ public class NativeLoader {
 	 * Maven-driven build.  Ditto the 'prefix', it could be a class's
 	 * package or the groupId value from a Maven-driven build.
 	 *
+	 * Once a library is loaded, further calls return immediately,
+	 * without locking or allocation.  Loads of different libraries
+	 * proceed in parallel.
 	 */
-	static public synchronized void load( String prefix,
-										  String libName )
+	static public void load( String prefix, String libName )
 		throws IOException {
 
-		String key = prefix + "-" + libName;
+		// The fast path: two lock-free map reads and a volatile read
+		Map<String,Library> libraries = registry.get( prefix );
+		if( libraries != null ) {
+			Library library = libraries.get( libName );
+			if( library != null && library.loaded )
+				return;
+		}
+		load( library( prefix, libName ) );
+	}
+
+	/**
+	 * Asynchronous variant of {@link #load(String,String)}, with
+	 * the resource lookup and extraction run on a default executor:
+	 * virtual threads where the VM has them, else a pool of daemon
+	 * threads.
+	 */
+	static public CompletableFuture<Void> loadAsync( String prefix,
+													 String libName ) {
+		return loadAsync( prefix, libName, DefaultExecutor.INSTANCE );
+	}
+
+	/**
+	 * Asynchronous variant of {@link #load(String,String)}, run on
+	 * the supplied executor, so that many libraries may be extracted
+	 * in parallel.  As for load, a library is handed to the VM
+	 * (System.load) at most once.  Concurrent requests for the same
+	 * library share a single future.
+	 *
+	 * @return a future completing when the library is loaded, or
+	 * exceptionally with whatever load would have thrown
+	 */
+	static public CompletableFuture<Void> loadAsync( String prefix,
+													 String libName,
+													 Executor executor ) {
+		final Library library = library( prefix, libName );
+		while( true ) {
+			if( library.loaded )
+				return CompletableFuture.completedFuture( null );
+			CompletableFuture<Void> result = library.pending.get();
+			if( result != null )
+				return result;
+			final CompletableFuture<Void> ours = new CompletableFuture<Void>();
+			if( !library.pending.compareAndSet( null, ours ) )
+				continue;
+			try {
+				executor.execute( () -> {
+						try {
+							load( library );
+							ours.complete( null );
+						} catch( Throwable t ) {
+							ours.completeExceptionally( t );
+						} finally {
+							library.pending.compareAndSet( ours, null );
+						}
+					} );
+			} catch( RejectedExecutionException ree ) {
+				ours.completeExceptionally( ree );
+				library.pending.compareAndSet( ours, null );
+			}
+			return ours;
+		}
+	}
+
+	/**
+	 * Load, in parallel on the default executor, several libraries
+	 * sharing a prefix.
+	 *
+	 * @see #loadAsync(String,String)
+	 */
+	static public CompletableFuture<Void> loadAll( String prefix,
+												   String... libNames ) {
+		return loadAll( DefaultExecutor.INSTANCE, prefix, libNames );
+	}
+
+	/**
+	 * Load, in parallel on the supplied executor, several libraries
+	 * sharing a prefix.  The returned future completes once all the
+	 * individual loads have, exceptionally if any one of them failed.
+	 *
+	 * @see #loadAsync(String,String,Executor)
+	 */
+	static public CompletableFuture<Void> loadAll( Executor executor,
+												   String prefix,
+												   String... libNames ) {
+		CompletableFuture<?>[] fs = new CompletableFuture<?>[libNames.length];
+		for( int i = 0; i < libNames.length; i++ )
+			fs[i] = loadAsync( prefix, libNames[i], executor );
+		return CompletableFuture.allOf( fs );
+	}
+
+	/*
+	  The registry entry for prefix/libName, created if need be.
+	*/
+	static Library library( final String prefix, String libName ) {
+		return registry.computeIfAbsent
+			( prefix, k -> new ConcurrentHashMap<String,Library>() ).
+			computeIfAbsent( libName, k -> new Library( prefix, k ) );
+	}
+
+	// Every registry entry, for the MXBean
+	static Iterable<Library> libraries() {
+		List<Library> result = new ArrayList<Library>();
+		for( Map<String,Library> libraries : registry.values() )
+			result.addAll( libraries.values() );
+		return result;
+	}
+
+	/*
+	  The slow path, under the library's own lock.  Callers for the
+	  same library wait here, all others proceed.
+	*/
+	static private void load( Library library ) throws IOException {
+		checkFailure( library );
+		library.lock.lock();
 		try {
-			if( loaded.contains( key ) )
+			if( library.loaded )
 				return;
-			loadNativeLibrary( prefix, libName );
-			loaded.add( key );
+			checkFailure( library );
+			LoadTimings t = new LoadTimings();
+			Linkage linkage = prefetched( library );
+			if( linkage == null ) {
+				try {
+					linkage = prepare( library.prefix, library.libName, t );
+				} catch( IllegalStateException ise ) {
+					remember( library, ise );
+					throw ise;
+				}
+			}
+			try {
+				link( library, linkage );
+			} catch( UnsatisfiedLinkError ule ) {
+				if( !linkage.inPlace )
+					throw ule;
+				/*
+				  E.g. the same file already loaded, in place, by
+				  another class loader's copy of NativeLoader, which
+				  the VM forbids.  A copy is another file, so allowed.
+				*/
+				log.debug( "Cannot load " + linkage.file +
+						   " in place, extracting: " + ule );
+				linkage = prepare( library.prefix, library.libName, t,
+								   false );
+				link( library, linkage );
+			}
+			t.link = t.lap();
+			Monitoring.loaded( library, t );
+			Profile.loaded( library );
 		} catch( IOException ioe ) {
 			log.error( ioe );
 			throw ioe;
+		} finally {
+			library.lock.unlock();
 		}
 	}
-		
-	static private synchronized void loadNativeLibrary( String prefix,
-														String libName )
+
+	/*
+	  Start preparing (finding, extracting) a library in the
+	  background, ahead of its load, for Profile replay.  Its load
+	  will then just link.
+	*/
+	static void prefetch( String prefix, String libName,
+						  Executor executor ) {
+		final Library library = library( prefix, libName );
+		if( library.loaded || library.prefetch.get() != null )
+			return;
+		CompletableFuture<Linkage> f = new CompletableFuture<Linkage>();
+		if( !library.prefetch.compareAndSet( null, f ) )
+			return;
+		try {
+			executor.execute( () -> {
+					try {
+						f.complete( prepare( library.prefix, library.libName,
+											 new LoadTimings() ) );
+					} catch( Throwable t ) {
+						f.completeExceptionally( t );
+					}
+				} );
+		} catch( RejectedExecutionException ree ) {
+			library.prefetch.compareAndSet( f, null );
+		}
+	}
+
+	/*
+	  The prefetched preparation of a library, waited for if still in
+	  progress.  Null if none, or if it failed (the profile is stale,
+	  say), in which case the load proceeds as if never prefetched.
+	*/
+	static private Linkage prefetched( Library library ) {
+		CompletableFuture<Linkage> f = library.prefetch.getAndSet( null );
+		if( f == null )
+			return null;
+		try {
+			return f.join();
+		} catch( CompletionException ce ) {
+			log.debug( "Prefetch of " + library + " failed: " +
+					   ce.getCause() );
+			return null;
+		}
+	}
+
+	/*
+	  For loaders other than System.load (see NativeSymbols, in the
+	  Java 22 part of the multi-release jar): what a load would hand
+	  the VM, resolved and extracted as for load, but not loaded, nor
+	  recorded as such.  In load order, so dependencies first.  Each
+	  element is an absolute path, but for a useExternal library, its
+	  mapped name (libfoo.so), for the platform's own search.  Empty
+	  if loading is disabled.  The files of one resolve are reused by
+	  the next while all are still there, rather than extracted anew
+	  each time.
+	*/
+	static List<String> resolve( String prefix, String libName )
 		throws IOException {
+		Library library = library( prefix, libName );
+		checkFailure( library );
+		Linkage linkage;
+		library.lock.lock();
+		try {
+			linkage = library.resolved;
+			if( linkage == null || !isIntact( linkage ) ) {
+				try {
+					linkage = prepare( prefix, libName, new LoadTimings() );
+				} catch( IllegalStateException ise ) {
+					remember( library, ise );
+					throw ise;
+				}
+				library.resolved = linkage;
+			}
+		} finally {
+			library.lock.unlock();
+		}
+		List<String> result = new ArrayList<String>();
+		for( Dependencies.Node n : linkage.dependencies )
+			result.add( n.file.getPath() );
+		if( linkage.file != null )
+			result.add( linkage.file.getAbsolutePath() );
+		else if( linkage.external != null )
+			result.add( System.mapLibraryName( linkage.external ) );
+		return result;
+	}
 
-		log.debug( "Loading: " + prefix + " " + libName );
+	// Every file still there, e.g. not lost to a tmpdir cleanup
+	static private boolean isIntact( Linkage linkage ) {
+		for( Dependencies.Node n : linkage.dependencies )
+			if( !n.file.isFile() )
+				return false;
+		return linkage.file == null || linkage.file.isFile();
+	}
+
+	static private void remember( Library library,
+								  IllegalStateException ise )
+		throws IOException {
+		long ttl = Configuration.of( library.prefix,
+									 library.libName ).retryAfter;
+		if( ttl > 0 ) {
+			library.failedUntil = System.nanoTime() + ttl;
+			library.failure = ise;
+		}
+	}
 
-		Properties p = loadConfiguration( prefix, libName );
+	/*
+	  A recent failure to find the library is thrown again, the very
+	  same exception, so bearing the original diagnostic.  Saves a
+	  retry loop re-probing every source every time.  Expired (or
+	  reset by refreshConfiguration), the library is looked for anew.
+	*/
+	static private void checkFailure( Library library ) {
+		IllegalStateException failure = library.failure;
+		if( failure == null )
+			return;
+		if( System.nanoTime() - library.failedUntil < 0 )
+			throw failure;
+		library.failure = null;
+	}
+
+	/*
+	  The first, expensive and I/O-bound, half of a load.  Needs no
+	  lock, so may be run concurrently for any number of libraries.
+	*/
+	static Linkage prepare( String prefix, String libName,
+							LoadTimings t ) throws IOException {
+		return prepare( prefix, libName, t, true );
+	}
+
+	/*
+	  As above, but with inPlace false, always extract bundled
+	  libraries, even those loadable in place (see InPlace).
+	*/
+	static private Linkage prepare( String prefix, String libName,
+									LoadTimings t, boolean inPlace )
+		throws IOException {
+
+		if( log.isDebugEnabled() )
+			log.debug( "Loading: " + prefix + " " + libName );
+
+		Configuration c = Configuration.of( prefix, libName );
+		t.config = t.lap();
 		
-		if( isDefined( "disabled", prefix, libName, p ) ) {
+		if( c.disabled ) {
 			log.debug( "Loading disabled: " + prefix + "," + libName );
-			return;
+			return Linkage.NONE;
 		}
 		
-		if( isDefined( "useExternal", prefix, libName, p ) ) {
+		if( c.useExternal ) {
 			/*
 			  Load external artifact (i.e. one found, hopefully, using
 			  -Djava.library.path).  Do NOT proceed to load from a local
 			  resource
 			*/
-			System.loadLibrary( libName );
-			return;
+			return new Linkage( null, libName );
 		}
 
-		File nativeLibFile = findNativeLibrary( prefix, libName, p );
-		if( nativeLibFile != null ) {
-			System.load( nativeLibFile.getPath() );
+		/*
+		  Try each source in the configured chain ($prefix.$libName.
+		  resolve), by default just the bundled resources.  First find
+		  wins.  If none finds, the failure, naming all places tried,
+		  is remembered for a while (see load).
+		*/
+		List<String> tried = new ArrayList<String>( c.resolve.size() );
+		for( Configuration.Source s : c.resolve ) {
+			Linkage result = null;
+			switch( s ) {
+			case BUNDLED:
+				result = findNativeLibrary( prefix, libName, c, t, tried,
+											inPlace );
+				break;
+			case LIBPATH:
+				result = findInDirectories( libName, LibraryPath.find
+											( libName ), "java.library.path",
+											t, tried );
+				break;
+			case SYSTEM:
+				result = findInDirectories( libName, LibraryPath.find
+											( libName, c.systemDirs ),
+											"" + c.systemDirs, t, tried );
+				break;
+			}
+			if( result != null )
+				return result;
 		}
+		t.lookup = t.lap();
+		throw new IllegalStateException
+			( "Native library missing: " + String.join( ", ", tried ) );
 	}
 
-	/**
-	 * Allow the loading process to be influenced by properties
-	 * loaded from the classpath, as identified by a resource name
-	 * built from prefix and libName
-	 */
-	static private Properties loadConfiguration( String prefix,
-												 String libName ) {
-		log.debug( "LoadConfiguration for " + prefix + "," + libName );
-		
-		Properties p = new Properties();
-		try {
-			String asResource = prefix.replaceAll( "\\.", "/" ) +
-				"/" + libName + ".properties";
-			InputStream is = NativeLoader.class.getResourceAsStream
-				( asResource );
-			if( is == null )
-				return p;
-			p.load( is );
-			is.close();
-		} catch( IOException e ) {
+	static private Linkage findInDirectories( String libName, File found,
+											  String where, LoadTimings t,
+											  List<String> tried ) {
+		if( found == null ) {
+			tried.add( System.mapLibraryName( libName ) + " in " + where );
+			return null;
 		}
-		return p;
+		t.lookup = t.lap();
+		log.debug( "Found " + libName + " as " + found );
+		return new Linkage( found, null );
 	}
 
-	static private boolean isDefined( String key,
-									  String prefix, String libName,
-									  Properties p ) {
-		String s = getValue( key, prefix, libName, p );
-		return s != null;
+	/*
+	  The second half of a load: hand the prepared library to the
+	  VM.  Called with the library's lock held.
+	*/
+	static private void link( Library library, Linkage linkage ) {
+		for( Dependencies.Node n : linkage.dependencies ) {
+			System.load( n.file.getPath() );
+			String depName = Dependencies.libName( n.name );
+			if( depName != null ) {
+				Library dep = library( library.prefix, depName );
+				dep.file = n.file;
+				dep.loaded = true;
+			}
+		}
+		if( linkage.file != null )
+			System.load( linkage.file.getPath() );
+		else if( linkage.external != null )
+			System.loadLibrary( linkage.external );
+		library.file = linkage.file;
+		library.digest = linkage.digest;
+		library.deduplicated = linkage.deduplicated;
+		library.loaded = true;
 	}
 
-	/**
-	 * We attempt a look up of a value for the supplied key, with look
-	 * up first in System.property space, then in p space.  Further,
-	 * we use two look up keys, in a 'hierarchical namespace' fashion
-	 * (think log4j logger configuration, where a logger can be
-	 * defined at e.g. class level, or package level)
-	 *
-	 * @param p a Properties object as returned from loadConfiguration
-	 */
-	static private String getValue( String key,
-									String prefix, String libName,
-									Properties p ) {
-		log.debug( "getValue: " + key + "," + prefix + "," + libName );
+	/*
+	  The outcome of prepare: a file to System.load, or a name to
+	  System.loadLibrary, or (loading disabled) neither.  A file may
+	  be preceded by bundled libraries it depends on.
+	*/
+	static final class Linkage {
+		Linkage( File file, String external ) {
+			this( file, external,
+				  Collections.<Dependencies.Node>emptyList() );
+		}
+		Linkage( File file, String external,
+				 List<Dependencies.Node> dependencies ) {
+			this.file = file;
+			this.external = external;
+			this.dependencies = dependencies;
+		}
+		final File file;
+		final String external;
+		final List<Dependencies.Node> dependencies;
 
-		String keyP = prefix + "." + key;
-		log.debug( "keyP: " + keyP );
-		
-		String s = System.getProperty( keyP );
-		if( s != null )
-			return s;
-		s = p.getProperty( keyP );
-		if( s != null )
-			return s;
-		
-		String keyPL = prefix + "." + libName + "." + key;
-		log.debug( "keyPL: " + keyPL );
+		// The payload's digest, if known, and whether a duplicate
+		String digest;
+		boolean deduplicated;
 
-		s = System.getProperty( keyPL );
-		if( s != null )
-			return s;
-		s = p.getProperty( keyPL );
-		if( s != null )
-			return s;
+		// Loaded from the classpath resource's own file, not a copy
+		boolean inPlace;
 
-		return null;
+		static final Linkage NONE = new Linkage( null, null );
 	}
-	
+
+	static Executor defaultExecutor() {
+		return DefaultExecutor.INSTANCE;
+	}
+
+	// Lazily created, on first use of the default executor
+	static private class DefaultExecutor {
+		static final Executor INSTANCE = newDefaultExecutor();
+	}
+
+	/*
+	  Virtual threads (Java 21+) if available, found reflectively as
+	  we compile against an older platform.  Else a pool of daemon
+	  threads, so that no load in progress holds up VM exit.
+	*/
+	static private Executor newDefaultExecutor() {
+		try {
+			Method m = Executors.class.getMethod
+				( "newVirtualThreadPerTaskExecutor" );
+			return (Executor)m.invoke( null );
+		} catch( Exception e ) {
+			log.debug( "No virtual threads, using a thread pool" );
+		}
+		return Executors.newCachedThreadPool( r -> {
+				Thread t = new Thread( r, "NativeLoader" );
+				t.setDaemon( true );
+				return t;
+			} );
+	}
+
+	/**
+	 * Discard the compiled configuration of every library, so that
+	 * later loads see current system properties, environment and
+	 * PREFIX/LIBNAME.properties resources.  Libraries already loaded
+	 * stay loaded.  Remembered failures to find libraries are
+	 * forgotten, as are the files of earlier resolves.
+	 */
+	static public void refreshConfiguration() {
+		Configuration.refresh();
+		for( Library library : libraries() ) {
+			library.failure = null;
+			library.resolved = null;
+		}
+	}
+
 	/*
 	  Load an OS-dependent native library from the classpath
 	  (typically from inside a jar file)
 	*/
-	static private File findNativeLibrary( String prefix,
-										   String libName,
-										   Properties p )
+	static private Linkage findNativeLibrary( String prefix,
+											  String libName,
+											  Configuration c,
+											  LoadTimings t,
+											  List<String> tried,
+											  boolean inPlace )
 		throws IOException {
 
 		/*
@@ -225,71 +580,198 @@ public class NativeLoader {
 		*/
 
 		String nativeLibraryName = System.mapLibraryName( libName );
-		String nativeLibraryPath = prefix.replaceAll( "\\.", "/" ) +
-			"/native/" + OSInfo.getNativeLibFolderPathForCurrentOS();
+		String nativePath = prefix.replaceAll( "\\.", "/" ) + "/native";
 
 		/*
 		  Ensure the resourceName starts '/' so is not subject to any
 		  'package name modification' during Class.getResource(),
 		  Class.getResourceAsStream() calls (dots in the version
 		  string could get replaced with slash!)
+
+		  With an index bundled for the prefix, we consult that
+		  first.  Else, or should the index not list the library, we
+		  look for each candidate name in the ClasspathIndex.  Only if
+		  no candidate at all is there do we probe the class loader,
+		  a linear search of the classpath per name, so a name per
+		  folder and compression suffix.
+		  Either way, we try each of the platform's folders in turn,
+		  best first, e.g. Linux/x86_64-v3 before Linux/x86_64.  A
+		  user value of $prefix.$libName.variant, e.g. v3 or baseline,
+		  pins the choice to that one variant.
 		*/
-		String resourceName = "/" +	nativeLibraryPath +	"/" + nativeLibraryName;
-		log.debug( "ResourceName: " + resourceName );
-
-		boolean haveNativeLib = haveResource( resourceName );
-        if( !haveNativeLib ) {
-            if( OSInfo.getOSName().equals("Mac") ) {
-                // Fix for openjdk7 for Mac
-                String altLibraryName =
-					"lib" + libName + ".jnilib";
-				resourceName = "/" + nativeLibraryPath +
-					"/" + altLibraryName;
-				log.debug( "AltResourceName: " + resourceName );
-                if( haveResource( resourceName ) ) {
-                    haveNativeLib = true;
-                }
-            }
-        }
-
-		if( !haveNativeLib ) 
-			throw new IllegalStateException( "Native library missing: " +
-											 resourceName );
+		List<String> folders = c.variant == null ?
+			OSInfo.getNativeLibFolderPathsForCurrentOS() :
+			OSInfo.getNativeLibFolderPathsForCurrentOS( c.variant );
+		NativeManifest manifest = NativeManifest.forPrefix( prefix );
+		NativeManifest.Entry entry = null;
+		String resourceName = null;
+		for( String folder : folders ) {
+			if( manifest != null ) {
+				entry = manifest.find( folder, nativeLibraryName );
+				if( entry == null && OSInfo.getOSName().equals("Mac") )
+					entry = manifest.find( folder,
+										   "lib" + libName + ".jnilib" );
+				if( entry != null )
+					resourceName = "/" + nativePath + "/" + entry.path;
+			}
+			if( resourceName == null ) {
+				// No index, or one that does not know this library
+				resourceName = findLibrary( nativePath + "/" + folder,
+											libName, true );
+			}
+			if( resourceName != null )
+				break;
+		}
+		if( resourceName == null ) {
+			for( String folder : folders ) {
+				resourceName = findLibrary( nativePath + "/" + folder,
+											libName, false );
+				if( resourceName != null )
+					break;
+			}
+		}
+
+		if( resourceName == null ) {
+			tried.add( "/" + nativePath + "/" +
+					   folders.get( folders.size() - 1 ) + "/" +
+					   nativeLibraryName );
+			return null;
+		}
+		t.lookup = t.lap();
+
         /*
 		  Temporary folder for the native library file.
-		  Use a user value of $prefix.$libName.tmpdir, or java.io.tmpdir
-		  by default
+		  Use a user value of $prefix.$libName.path, or java.io.tmpdir
+		  by default.  If $prefix.$libName.cache is defined, this same
+		  folder is instead the root of a persistent, content-addressed
+		  cache, shared by all VMs on the host (see ExtractionCache).
 		*/
-		String tmpPath = getValue( "path", prefix, libName, p );
-		if( tmpPath == null )
-			tmpPath = System.getProperty( "java.io.tmpdir");
-		File tmpDir = new File( tmpPath ).getCanonicalFile();
-		log.debug( "Tempdir for native lib: " + tmpDir );
-		return extractLibraryFile( resourceName, tmpDir );
+		File tmpDir = c.path;
+		boolean cache = c.cache;
+
+		/*
+		  Already a plain file, as from an exploded classpath?  Then
+		  no copy at all, unless $prefix.$libName.alwaysExtract is
+		  defined.  See InPlace.
+		*/
+		File file = inPlace && !c.alwaysExtract ?
+			InPlace.file( resourceName ) : null;
+		inPlace = file != null;
+
+		/*
+		  A payload byte-identical to one already materialized, e.g.
+		  the same library bundled by another (shaded) jar under
+		  another prefix, is not extracted again.  See Payloads.
+		*/
+		String digest = inPlace || c.dedup == Payloads.Policy.OFF ||
+			entry == null ? null : entry.sha256;
+		if( digest != null ) {
+			final String r = resourceName;
+			file = Payloads.reuse
+				( digest, c.dedup, () -> cache ?
+				  ExtractionCache.cachedFile( r, tmpDir, digest ) :
+				  Janitor.newFile( tmpDir, flatten( r ) ) );
+		}
+		boolean deduplicated = !inPlace && file != null;
+		if( file == null ) {
+			file = cache ?
+				ExtractionCache.extract( resourceName, tmpDir, entry, t ) :
+				extractLibraryFile( resourceName, tmpDir, t );
+			if( digest != null )
+				Payloads.put( digest, file );
+		}
+
+		/*
+		  An ELF library may need others bundled alongside it
+		  (DT_NEEDED), which the dynamic linker will not find in the
+		  temp dir.  Unless $prefix.$libName.ignoreDependencies is
+		  defined, we extract those too, and have link load them
+		  first.  See Dependencies.
+		*/
+		Linkage result = c.ignoreDependencies ? new Linkage( file, null ) :
+			withDependencies( prefix, nativePath, resourceName, file,
+							  entry == null ? null : manifest, tmpDir,
+							  cache, inPlace, t );
+		result.digest = entry == null ? null : entry.sha256;
+		result.deduplicated = deduplicated;
+		result.inPlace = inPlace;
+		t.extract = t.lap();
+		return result;
+	}
+
+	static private Linkage withDependencies( String prefix,
+											 String nativePath,
+											 String resourceName,
+											 File file,
+											 final NativeManifest manifest,
+											 final File tmpDir,
+											 final boolean cache,
+											 final boolean inPlace,
+											 final LoadTimings t )
+		throws IOException {
+		Map<String,String> siblings = Dependencies.siblings
+			( resourceName, nativePath, manifest );
+		Map<String,Library> libraries = registry.get( prefix );
+		if( libraries != null ) {
+			Iterator<String> it = siblings.keySet().iterator();
+			while( it.hasNext() ) {
+				String depName = Dependencies.libName( it.next() );
+				Library dep = depName == null ? null :
+					libraries.get( depName );
+				if( dep != null && dep.loaded )
+					it.remove();
+			}
+		}
+		if( siblings.size() < 2 )
+			return new Linkage( file, null );
+
+		final String base = "/" + nativePath + "/";
+		List<Dependencies.Node> nodes = Dependencies.resolve
+			( resourceName, file, siblings, r -> {
+				// Siblings of a library loaded in place likewise, if we can
+				File f = inPlace ? InPlace.file( r ) : null;
+				if( f != null )
+					return f;
+				return cache ? ExtractionCache.extract
+					( r, tmpDir, manifest == null ? null :
+					  manifest.get( r.substring( base.length() ) ), t ) :
+					extractLibraryFile( r, tmpDir, t );
+			}, DefaultExecutor.INSTANCE );
+		if( nodes == null )
+			return new Linkage( file, null );
+
+		if( !Dependencies.isLaidOut( nodes ) ) {
+			String folder = resourceName.substring
+				( 1, resourceName.lastIndexOf( '/' ) ).replaceAll( "/", "." );
+			Dependencies.layout( nodes, tmpDir, folder, cache );
+		}
+		Dependencies.Node root = nodes.get( nodes.size() - 1 );
+		return new Linkage( root.file, null,
+							nodes.subList( 0, nodes.size() - 1 ) );
 	}
 	
 	
 	// Extract a native library resource into a file in the target directory
 	static private File extractLibraryFile( String resourceName,
-											File outDir ) throws IOException {
+											File outDir, LoadTimings t )
+		throws IOException {
         /*
-		  Attach UUID to the native library file to essentially
-		  randomize its name.  This ensures multiple class loaders can
-		  read it multiple times.
+		  Attach this VM's session id, and a sequence number, to the
+		  native library file to essentially randomize its name.
+		  This ensures multiple class loaders can read it multiple
+		  times.  No deleteOnExit: the Janitor removes the files of
+		  VMs gone, however they went.
 		*/
-        String uuid = UUID.randomUUID().toString();
-        String extractedLibFileName =
-			resourceName.substring(1).replaceAll( "/", "." );
-		// In Maven terms, the uuid acts like a 'classifier'
-		extractedLibFileName += "-" + uuid;
-        File extractedLibFile = new File( outDir, extractedLibFileName );
+		if( !outDir.isDirectory() && !outDir.mkdirs() &&
+			!outDir.isDirectory() )
+			throw new IOException( "Cannot create dir: " + outDir );
+		// In Maven terms, the session-N acts like a 'classifier'
+        File extractedLibFile = Janitor.newFile( outDir,
+												 flatten( resourceName ) );
 		log.debug( "Extracting " + resourceName + " to " + extractedLibFile );
 
-		InputStream is = NativeLoader.class.getResourceAsStream
-			( resourceName );
-		FileUtils.copyInputStreamToFile( is, extractedLibFile );
-		is.close();
-		extractedLibFile.deleteOnExit();
+		t.wrote( Extractor.extract( resourceName, extractedLibFile, null ) );
+		Janitor.schedule( outDir );
 
 		// Set executable (x) flag to enable Java to load the native library
 		extractedLibFile.setReadable(true);
@@ -300,13 +782,83 @@ public class NativeLoader {
 	}
 	
 	
-	static private boolean haveResource( String path ) {
-        return NativeLoader.class.getResource(path) != null;
-    }
+	// e.g. com.foo.native.Linux.x86_64.libfoo.so, for libfoo.so.gz
+	static private String flatten( String resourceName ) {
+		return Compression.of( resourceName ).strip
+			( resourceName.substring(1).replaceAll( "/", "." ) );
+	}
 
-	static private final Set<String> loaded = new HashSet<String>();
+	/*
+	  The resource name under which the native library is bundled,
+	  either as is or in some compressed form (libfoo.so.gz, etc), or
+	  null if not bundled at all.
+	*/
+	/*
+	  With indexOnly, consult just the ClasspathIndex, else the
+	  class loader too.
+	*/
+	static private String findLibrary( String nativeLibraryPath,
+									   String libName,
+									   boolean indexOnly ) {
+		String resourceName = findResource
+			( nativeLibraryPath, System.mapLibraryName( libName ),
+			  indexOnly );
+		if( resourceName == null && OSInfo.getOSName().equals("Mac") ) {
+			// Fix for openjdk7 for Mac
+			String altLibraryName = "lib" + libName + ".jnilib";
+			resourceName = findResource( nativeLibraryPath, altLibraryName,
+										 indexOnly );
+		}
+		return resourceName;
+	}
+
+	static private String findResource( String nativeLibraryPath,
+										String nativeLibraryName,
+										boolean indexOnly ) {
+		String resourceName = "/" + nativeLibraryPath + "/" +
+			nativeLibraryName;
+		if( log.isDebugEnabled() )
+			log.debug( "ResourceName: " + resourceName );
+		if( haveResource( resourceName, indexOnly ) )
+			return resourceName;
+		for( Compression c : Compression.COMPRESSED ) {
+			String compressed = resourceName + c.suffix;
+			if( haveResource( compressed, indexOnly ) ) {
+				log.debug( "ResourceName: " + compressed );
+				return compressed;
+			}
+		}
+		return null;
+	}
+
+	static private boolean haveResource( String path, boolean indexOnly ) {
+		return indexOnly ? ClasspathIndex.indexed( path ) != null :
+			ClasspathIndex.find( path ) != null;
+	}
+
+	/*
+	  All libraries ever requested, by prefix then libName.  Two
+	  levels, so that lookups need build no composite key.
+	*/
+	static private final ConcurrentMap<String,ConcurrentMap<String,Library>>
+		registry = new ConcurrentHashMap<String,ConcurrentMap<String,Library>>();
+
+	// Saves a Class.getPackage().getName() per load(Class,String)
+	static private final ClassValue<String> packageNames =
+		new ClassValue<String>() {
+			@Override
+			protected String computeValue( Class<?> c ) {
+				return c.getPackage().getName();
+			}
+		};
 
 	static private final Log log = LogFactory.getLog( NativeLoader.class );
+
+	// Last, so that all the above is in place for any replay
+	static {
+		Profile.start();
+		Crac.register();
+	}
 }
 
 // eof
@@ -0,0 +1,270 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A Java agent which loads native libraries at VM start, in the
+ * background, rather than when the first class needing them happens
+ * to be initialized (perhaps while serving some first request).  Any
+ * later {@link NativeLoader#load} of a pre-loaded library is then
+ * just the fast path.  Use as
+ *
+ * java -javaagent:native-lib-loader-2.1.0.jar ...
+ *
+ * which loads every library bundled for this platform anywhere on
+ * the classpath, i.e. every PREFIX/native/OS/ARCH/libNAME.so (etc)
+ * for our OS/ARCH folders (see OSInfo), or
+ *
+ * java -javaagent:native-lib-loader-2.1.0.jar=com.foo:bar,com.foo:baz
+ *
+ * which loads just those PREFIX:LIBNAME pairs.  An argument @FILE
+ * reads more pairs from FILE, one per line.
+ *
+ * Loading is as by {@link NativeLoader#loadAll}, so in parallel and
+ * subject to the usual configuration (a disabled library is skipped).
+ * A failure is logged, nothing more: the application's own load of
+ * that library will fail just as it would have without the agent.
+ */
+public class NativeLoaderAgent {
+
+	static public void premain( String args, Instrumentation inst ) {
+		start( args );
+	}
+
+	// Same again, for an agent attached to a running VM
+	static public void agentmain( String args, Instrumentation inst ) {
+		start( args );
+	}
+
+	/**
+	 * Resolve, in the background, the libraries to load, then load
+	 * them.  Returns at once.
+	 *
+	 * @return a future completing once all loads have been attempted
+	 */
+	static CompletableFuture<Void> start( final String args ) {
+		return CompletableFuture.supplyAsync
+			( () -> {
+				try {
+					return args == null || args.trim().isEmpty() ?
+						scan( classPath() ) : parse( args );
+				} catch( IOException | RuntimeException e ) {
+					// E.g. a malformed pair, else lost in the future
+					log.warn( "NativeLoaderAgent: " + e );
+					return new LinkedHashMap<String,Set<String>>();
+				}
+			}, NativeLoader.defaultExecutor() ).
+			thenCompose( NativeLoaderAgent::loadAll );
+	}
+
+	static private CompletableFuture<Void> loadAll
+		( Map<String,Set<String>> libraries ) {
+		List<CompletableFuture<Void>> fs =
+			new ArrayList<CompletableFuture<Void>>();
+		for( Map.Entry<String,Set<String>> me : libraries.entrySet() ) {
+			final String prefix = me.getKey();
+			for( final String libName : me.getValue() ) {
+				fs.add( NativeLoader.loadAsync( prefix, libName ).
+						handle( ( v, t ) -> {
+								if( t != null )
+									log.warn( "NativeLoaderAgent: " +
+											  prefix + ":" + libName +
+											  ": " + t );
+								else
+									log.debug( "NativeLoaderAgent: loaded " +
+											   prefix + ":" + libName );
+								return null;
+							} ) );
+			}
+		}
+		return CompletableFuture.allOf
+			( fs.toArray( new CompletableFuture<?>[fs.size()] ) );
+	}
+
+	/**
+	 * @return the PREFIX:LIBNAME pairs in args, by prefix
+	 */
+	static Map<String,Set<String>> parse( String args ) throws IOException {
+		Map<String,Set<String>> result =
+			new LinkedHashMap<String,Set<String>>();
+		for( String arg : args.split( "," ) ) {
+			arg = arg.trim();
+			if( arg.startsWith( "@" ) ) {
+				for( String line : Files.readAllLines
+						 ( new File( arg.substring( 1 ) ).toPath(),
+						   StandardCharsets.UTF_8 ) ) {
+					line = line.trim();
+					if( !line.isEmpty() && !line.startsWith( "#" ) )
+						add( line, result );
+				}
+			} else if( !arg.isEmpty() ) {
+				add( arg, result );
+			}
+		}
+		return result;
+	}
+
+	static private void add( String pair, Map<String,Set<String>> result ) {
+		int colon = pair.indexOf( ':' );
+		if( colon < 1 || colon == pair.length() - 1 )
+			throw new IllegalArgumentException
+				( "Expected PREFIX:LIBNAME: " + pair );
+		add( pair.substring( 0, colon ), pair.substring( colon + 1 ),
+			 result );
+	}
+
+	static private void add( String prefix, String libName,
+							 Map<String,Set<String>> result ) {
+		Set<String> libNames = result.get( prefix );
+		if( libNames == null ) {
+			libNames = new LinkedHashSet<String>();
+			result.put( prefix, libNames );
+		}
+		libNames.add( libName );
+	}
+
+	static List<File> classPath() {
+		List<File> result = new ArrayList<File>();
+		for( String s : System.getProperty( "java.class.path" ).split
+				 ( File.pathSeparator ) )
+			if( !s.isEmpty() )
+				result.add( new File( s ) );
+		return result;
+	}
+
+	/**
+	 * @return the libraries bundled, for any of this platform's
+	 * folders, in the jars and directories of the classpath, by prefix
+	 */
+	static Map<String,Set<String>> scan( List<File> classPath )
+		throws IOException {
+		Set<String> folders = new LinkedHashSet<String>
+			( OSInfo.getNativeLibFolderPathsForCurrentOS() );
+		Map<String,Set<String>> result =
+			new LinkedHashMap<String,Set<String>>();
+		for( File f : classPath )
+			for( String path : resources( f ) )
+				consider( path, folders, result );
+		return result;
+	}
+
+	/**
+	 * @return the resource names, e.g. com/foo/bar/native/Linux/x86_64/
+	 * libbar.so, of the files in a jar or below a directory.  Empty if
+	 * f is neither.  A jar's directory is read afresh, not cached:
+	 * most jars scanned hold no natives.
+	 */
+	static List<String> resources( File f ) {
+		List<String> result = new ArrayList<String>();
+		if( f.isFile() ) {
+			try {
+				for( ZipDirectory.Entry e : ZipDirectory.read( f ).entries() )
+					if( !e.name.endsWith( "/" ) )
+						result.add( e.name );
+			} catch( IOException ioe ) {
+				log.debug( "NativeLoaderAgent: not a jar: " + f );
+			}
+		} else if( f.isDirectory() ) {
+			walk( f, "", result );
+		}
+		return result;
+	}
+
+	static private void walk( File dir, String path, List<String> result ) {
+		File[] fs = dir.listFiles();
+		if( fs == null )
+			return;
+		for( File f : fs ) {
+			String name = path + f.getName();
+			if( f.isDirectory() )
+				walk( f, name + "/", result );
+			else
+				result.add( name );
+		}
+	}
+
+	/*
+	  For a resource path PREFIX/native/OS/ARCH/NAME, with OS/ARCH one
+	  of our folders and NAME (bar any compression suffix) being what
+	  System.mapLibraryName makes of some LIBNAME, add PREFIX:LIBNAME.
+	  So no dependency-only files like libbar.so.1.
+	*/
+	static private void consider( String path, Set<String> folders,
+								  Map<String,Set<String>> result ) {
+		int n = path.lastIndexOf( "/native/" );
+		if( n < 1 )
+			return;
+		String rest = path.substring( n + "/native/".length() );
+		int slash = rest.lastIndexOf( '/' );
+		if( slash == -1 || !folders.contains( rest.substring( 0, slash ) ) )
+			return;
+		String name = rest.substring( slash + 1 );
+		name = Compression.of( name ).strip( name );
+		String libName;
+		if( name.startsWith( "lib" ) && name.endsWith( ".jnilib" ) ) {
+			// See NativeLoader, the openjdk7 for Mac fix
+			libName = name.substring( 3, name.length() - 7 );
+		} else {
+			libName = Dependencies.libName( name );
+			if( libName == null ||
+				!System.mapLibraryName( libName ).equals( name ) )
+				return;
+		}
+		add( path.substring( 0, n ).replace( '/', '.' ), libName, result );
+	}
+
+	static private final Log log = LogFactory.getLog( NativeLoaderAgent.class );
+}
+
+// eof
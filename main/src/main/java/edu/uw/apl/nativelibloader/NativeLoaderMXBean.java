@@ -0,0 +1,176 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.util.List;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The management view of the {@link NativeLoader}: which libraries
+ * are loaded, from where, and how long each phase of each load took.
+ * Registered as edu.uw.apl.nativelibloader:type=NativeLoader, but
+ * only if system property edu.uw.apl.nativelibloader.jmx is defined
+ * (so that, by default, loading a library does not drag in the
+ * platform MBeanServer).
+ */
+public interface NativeLoaderMXBean {
+
+	String OBJECTNAME = "edu.uw.apl.nativelibloader:type=NativeLoader";
+
+	/**
+	 * Every library loaded so far, in no particular order
+	 */
+	List<LoadedLibrary> getLibraries();
+
+	int getLoadedCount();
+
+	/**
+	 * Sum of the load times of all loaded libraries, in nanoseconds
+	 */
+	long getTotalLoadNanos();
+
+	/**
+	 * Number of libraries whose payload was found byte-identical to
+	 * one already extracted, so was not extracted again
+	 */
+	long getDedupHits();
+
+	/**
+	 * Total size of the extractions so avoided
+	 */
+	long getDedupBytesSaved();
+
+	/**
+	 * @see NativeLoader#refreshConfiguration
+	 */
+	void refreshConfiguration();
+
+	/**
+	 * One loaded library.  Times are in nanoseconds, and zero for
+	 * phases not run (e.g. lookup and extraction of a useExternal
+	 * library).  Libraries loaded as dependencies of others were
+	 * timed as part of those, so have no timings of their own.
+	 */
+	static public final class LoadedLibrary {
+		LoadedLibrary( Library library, LoadTimings t ) {
+			prefix = library.prefix;
+			libName = library.libName;
+			java.io.File f = library.file;
+			path = f == null ? null : f.getPath();
+			digest = library.digest;
+			deduplicated = library.deduplicated;
+			if( t == null )
+				t = LoadTimings.NONE;
+			configNanos = t.config;
+			lookupNanos = t.lookup;
+			extractNanos = t.extract;
+			bytes = t.bytes;
+			linkNanos = t.link;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		public String getLibName() {
+			return libName;
+		}
+
+		/**
+		 * The file handed to System.load, null if loaded via
+		 * System.loadLibrary (useExternal) or not at all (disabled)
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * SHA-256 of the payload as bundled, if the prefix has an
+		 * index
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * True if the payload duplicated one already extracted, for
+		 * some other library, whose file was reused
+		 */
+		public boolean isDeduplicated() {
+			return deduplicated;
+		}
+
+		public long getConfigNanos() {
+			return configNanos;
+		}
+
+		public long getLookupNanos() {
+			return lookupNanos;
+		}
+
+		/**
+		 * Time to materialize the library file(s), whether by
+		 * extraction or from the cache, dependencies included
+		 */
+		public long getExtractNanos() {
+			return extractNanos;
+		}
+
+		/**
+		 * Total bytes written materializing the library file(s): 0
+		 * for a cache hit, an in-place load or a dedup link
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getLinkNanos() {
+			return linkNanos;
+		}
+
+		public long getTotalNanos() {
+			return configNanos + lookupNanos + extractNanos + linkNanos;
+		}
+
+		private final String prefix, libName, path, digest;
+		private final boolean deduplicated;
+		private final long configNanos, lookupNanos, extractNanos;
+		private final long bytes, linkNanos;
+	}
+}
+
+// eof
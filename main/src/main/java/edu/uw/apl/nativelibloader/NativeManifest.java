@@ -0,0 +1,374 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * An index of all the native libraries bundled for some prefix,
+ * across all platforms, written at build time (see the
+ * native-lib-loader-maven-plugin module) as the resource
+ *
+ * com/foo/bar/native/index.properties
+ *
+ * For each bundled file, keyed by its path below native/,
+ * e.g. Linux/x86_64/libfoo.so.gz, the index records its size and
+ * SHA-256 digest, its compression and, where the build could
+ * decompress it, its uncompressed size and digest:
+ *
+ * Linux/x86_64/libfoo.so.gz.size=...
+ * Linux/x86_64/libfoo.so.gz.sha256=...
+ * Linux/x86_64/libfoo.so.gz.compression=gzip
+ * Linux/x86_64/libfoo.so.gz.uncompressedSize=...
+ * Linux/x86_64/libfoo.so.gz.uncompressedSha256=...
+ *
+ * Given an index, NativeLoader reads it once per prefix instead of
+ * probing the classpath for each candidate resource name, and the
+ * ExtractionCache needs hash nothing to recognise a hit.  Where
+ * several jars each bundle an index for the prefix, their entries
+ * are merged.  A library missing from the merged index, e.g. one
+ * bundled by a jar built without the plugin, is still found by
+ * probing.
+ */
+public final class NativeManifest {
+
+	/**
+	 * A single bundled file.
+	 */
+	static public final class Entry {
+		Entry( String path, long size, String sha256,
+			   Compression compression, long uncompressedSize,
+			   String uncompressedSha256 ) {
+			this.path = path;
+			this.size = size;
+			this.sha256 = sha256;
+			this.compression = compression;
+			this.uncompressedSize = uncompressedSize;
+			this.uncompressedSha256 = uncompressedSha256;
+		}
+
+		/**
+		 * @return e.g. Linux/x86_64/libfoo.so.gz
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getSha256() {
+			return sha256;
+		}
+
+		/**
+		 * @return the library's size once extracted, -1 if unknown
+		 */
+		public long getUncompressedSize() {
+			return uncompressedSize;
+		}
+
+		/**
+		 * @return the library's digest once extracted, null if unknown
+		 */
+		public String getUncompressedSha256() {
+			return uncompressedSha256;
+		}
+
+		final String path;
+		final long size;
+		final String sha256;
+		final Compression compression;
+		final long uncompressedSize;
+		final String uncompressedSha256;
+	}
+
+	private NativeManifest( Map<String,Entry> entries ) {
+		this.entries = entries;
+	}
+
+	/**
+	 * The index bundled for the supplied prefix, read from the
+	 * classpath at most once.
+	 *
+	 * @return null if no index is bundled
+	 */
+	static NativeManifest forPrefix( String prefix ) {
+		NativeManifest result = loaded.get( prefix );
+		if( result == null ) {
+			result = load( prefix );
+			loaded.putIfAbsent( prefix, result );
+		}
+		return result == ABSENT ? null : result;
+	}
+
+	static private NativeManifest load( String prefix ) {
+		ClassLoader cl = NativeLoader.class.getClassLoader();
+		if( cl == null )
+			cl = ClassLoader.getSystemClassLoader();
+		return load( cl, prefix );
+	}
+
+	/**
+	 * Several jars may bundle natives for the one prefix, e.g. one
+	 * jar per platform, each with its own index.  So every index
+	 * visible to cl is read and the results merged, the first jar on
+	 * the classpath winning where two index the same path, as
+	 * getResource would.
+	 *
+	 * @return ABSENT if no index could be read
+	 */
+	static NativeManifest load( ClassLoader cl, String prefix ) {
+		String resourceName = prefix.replaceAll( "\\.", "/" ) +
+			"/native/" + RESOURCENAME;
+		Enumeration<URL> urls;
+		try {
+			urls = cl.getResources( resourceName );
+		} catch( IOException ioe ) {
+			log.warn( "Ignoring unreadable " + resourceName + ": " + ioe );
+			return ABSENT;
+		}
+		Map<String,Entry> entries = null;
+		while( urls.hasMoreElements() ) {
+			URL url = urls.nextElement();
+			try {
+				InputStream is = url.openStream();
+				try {
+					Properties p = new Properties();
+					p.load( is );
+					log.debug( "Loaded " + url );
+					NativeManifest m = fromProperties( p );
+					if( entries == null )
+						entries = m.entries;
+					else
+						for( Entry e : m.entries.values() )
+							if( !entries.containsKey( e.path ) )
+								entries.put( e.path, e );
+				} finally {
+					is.close();
+				}
+			} catch( Exception e ) {
+				// A broken index is no index: fall back to probing
+				log.warn( "Ignoring unreadable " + url + ": " + e );
+			}
+		}
+		return entries == null ? ABSENT : new NativeManifest( entries );
+	}
+
+	/**
+	 * @param path e.g. Linux/x86_64/libfoo.so.gz
+	 *
+	 * @return the entry for path, or null if nothing bundled there
+	 */
+	public Entry get( String path ) {
+		return entries.get( path );
+	}
+
+	/**
+	 * The entry for a library, as bundled either uncompressed or in
+	 * some compressed form.
+	 *
+	 * @param folder e.g. Linux/x86_64
+	 * @param nativeLibraryName e.g. libfoo.so
+	 */
+	Entry find( String folder, String nativeLibraryName ) {
+		String path = folder + "/" + nativeLibraryName;
+		Entry e = entries.get( path );
+		if( e != null )
+			return e;
+		for( Compression c : Compression.COMPRESSED ) {
+			e = entries.get( path + c.suffix );
+			if( e != null )
+				return e;
+		}
+		return null;
+	}
+
+	public Collection<Entry> entries() {
+		return Collections.unmodifiableCollection( entries.values() );
+	}
+
+	/**
+	 * Build an index by walking a native/ directory, as laid out
+	 * under e.g. target/classes/com/foo/bar/native.
+	 */
+	static public NativeManifest scan( File nativeDir ) throws IOException {
+		Map<String,Entry> entries = new TreeMap<String,Entry>();
+		File[] oses = nativeDir.listFiles();
+		if( oses != null ) {
+			for( File os : oses ) {
+				File[] archs = os.listFiles();
+				if( archs == null )
+					continue;
+				for( File arch : archs ) {
+					File[] libs = arch.listFiles();
+					if( libs == null )
+						continue;
+					for( File lib : libs ) {
+						if( !lib.isFile() )
+							continue;
+						String path = os.getName() + "/" + arch.getName() +
+							"/" + lib.getName();
+						entries.put( path, describe( path, lib ) );
+					}
+				}
+			}
+		}
+		return new NativeManifest( entries );
+	}
+
+	static private Entry describe( String path, File lib ) throws IOException {
+		Compression c = Compression.of( lib.getName() );
+		String sha256 = ExtractionCache.digest( lib );
+		long uncompressedSize = c == Compression.NONE ? lib.length() : -1;
+		String uncompressedSha256 = c == Compression.NONE ? sha256 : null;
+		if( c != Compression.NONE ) {
+			MessageDigest md = ExtractionCache.newMessageDigest();
+			InputStream is = new FileInputStream( lib );
+			try {
+				InputStream dis = new DigestInputStream( c.decompress( is ),
+														 md );
+				uncompressedSize = IOUtils.copyLarge
+					( dis, NullOutputStream.NULL_OUTPUT_STREAM );
+				uncompressedSha256 = ExtractionCache.toHex( md.digest() );
+			} catch( IOException ioe ) {
+				// e.g. no decoder available at build time
+				log.warn( "Cannot decompress " + lib + ": " + ioe );
+			} finally {
+				is.close();
+			}
+		}
+		return new Entry( path, lib.length(), sha256, c, uncompressedSize,
+						  uncompressedSha256 );
+	}
+
+	/**
+	 * Write the index, in properties form, to out.  Written without
+	 * the timestamp comment Properties.store would add, so that
+	 * repeated builds produce identical output.
+	 */
+	public void store( OutputStream out ) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append( "# Generated by native-lib-loader. Do not edit.\n" );
+		for( Entry e : entries.values() ) {
+			sb.append( e.path ).append( ".size=" ).append( e.size ).
+				append( '\n' );
+			sb.append( e.path ).append( ".sha256=" ).append( e.sha256 ).
+				append( '\n' );
+			sb.append( e.path ).append( ".compression=" ).
+				append( e.compression.name().toLowerCase() ).append( '\n' );
+			if( e.uncompressedSize >= 0 )
+				sb.append( e.path ).append( ".uncompressedSize=" ).
+					append( e.uncompressedSize ).append( '\n' );
+			if( e.uncompressedSha256 != null )
+				sb.append( e.path ).append( ".uncompressedSha256=" ).
+					append( e.uncompressedSha256 ).append( '\n' );
+		}
+		out.write( sb.toString().getBytes( "ISO-8859-1" ) );
+	}
+
+	public void store( File f ) throws IOException {
+		OutputStream os = new FileOutputStream( f );
+		try {
+			store( os );
+		} finally {
+			os.close();
+		}
+	}
+
+	static NativeManifest fromProperties( Properties p ) {
+		Map<String,Entry> entries = new TreeMap<String,Entry>();
+		for( String key : p.stringPropertyNames() ) {
+			if( !key.endsWith( SHA256 ) )
+				continue;
+			String path = key.substring( 0, key.length() - SHA256.length() );
+			String compression = p.getProperty( path + ".compression" );
+			Compression c = compression == null ? Compression.of( path ) :
+				Compression.valueOf( compression.toUpperCase() );
+			entries.put( path, new Entry
+						 ( path,
+						   Long.parseLong( p.getProperty( path + ".size" ) ),
+						   p.getProperty( key ), c,
+						   Long.parseLong( p.getProperty
+										   ( path + ".uncompressedSize",
+											 "-1" ) ),
+						   p.getProperty( path + ".uncompressedSha256" ) ) );
+		}
+		return new NativeManifest( entries );
+	}
+
+	private final Map<String,Entry> entries;
+
+	/**
+	 * The index's name, relative to PREFIX/native/
+	 */
+	static public final String RESOURCENAME = "index.properties";
+
+	static private final String SHA256 = ".sha256";
+
+	static private final NativeManifest ABSENT =
+		new NativeManifest( Collections.<String,Entry>emptyMap() );
+
+	static private final Map<String,NativeManifest> loaded =
+		new ConcurrentHashMap<String,NativeManifest>();
+
+	static private final Log log = LogFactory.getLog( NativeManifest.class );
+}
+
+// eof
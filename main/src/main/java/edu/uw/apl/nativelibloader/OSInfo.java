@@ -33,8 +33,12 @@
  */
 package edu.uw.apl.nativelibloader;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Locale;
 
@@ -78,40 +82,118 @@ public class OSInfo {
 	 *
 	 * @return a sub-path name, e.g. 'Linux/x86_64', to be used in
 	 * composing a full path name to a resource containing some
-	 * platform-specific (JNI) code.
+	 * platform-specific (JNI) code.  Always the OS and the baseline
+	 * arch, so 'Linux/x86_64' on musl too: the musl folders are
+	 * offered only by {@link #getNativeLibFolderPathsForCurrentOS()}.
 	 *
 	 * @see NativeLibLoader
 	 */
     static public String getNativeLibFolderPathForCurrentOS() {
-        return getOSName() + "/" + getArchName();
+        return Platform.FOLDER;
+    }
+
+	/**
+	 * All the sub-path names under which a native library for this
+	 * platform may be found, best first.  On x86_64 Linux, folders for
+	 * builds tuned to the CPU's microarchitecture level come first, e.g.
+	 *
+	 * Linux/x86_64-v3, Linux/x86_64-v2, Linux/x86_64
+	 *
+	 * On a musl-based Linux, 'Linux-musl/x86_64' (etc) and then
+	 * (perhaps usable, e.g. via gcompat) 'Linux/x86_64' (etc).
+	 */
+    static public List<String> getNativeLibFolderPathsForCurrentOS() {
+        return Platform.FOLDERS;
+    }
+
+	/**
+	 * As {@link #getNativeLibFolderPathsForCurrentOS()}, but pinned
+	 * to a single arch variant.
+	 *
+	 * @param variant e.g. 'v3' or 'x86_64-v3' for that level only,
+	 * 'baseline' (or the bare arch name) for the baseline only
+	 */
+    static public List<String> getNativeLibFolderPathsForCurrentOS
+		( String variant ) {
+		String arch = getArchName();
+		if( variant.startsWith( arch ) )
+			variant = variant.substring( arch.length() );
+		if( variant.startsWith( "-" ) )
+			variant = variant.substring( 1 );
+		String archFolder = variant.isEmpty() || variant.equals( "baseline" ) ?
+			arch : arch + "-" + variant;
+		return Platform.folders( Collections.singletonList( archFolder ) );
+    }
+
+	/**
+	 * @return the arch folder names for this CPU, best first,
+	 * e.g. [x86_64-v3, x86_64-v2, x86_64]
+	 */
+    static public List<String> getArchVariants() {
+        return Platform.VARIANTS;
     }
 
     static public String getOSName() {
-        return translateOSNameToFolderName(System.getProperty("os.name"));
+        return Platform.OS;
     }
 
     static public String getArchName() {
+        return Platform.ARCH;
+    }
+
+	/**
+	 * @return true if running on Linux with musl (e.g. Alpine)
+	 * rather than glibc as its C library
+	 */
+    static public boolean isMusl() {
+        return Platform.MUSL;
+    }
+
+	/*
+	  The platform cannot change under a running VM, so we work it
+	  all out once, on first use.
+	*/
+	static private class Platform {
+		static final String OS =
+			translateOSNameToFolderName( System.getProperty( "os.name" ) );
+		static final boolean MUSL = OS.equals( "Linux" ) && detectMusl();
+		static final String ARCH = detectArchName();
+		static final List<String> VARIANTS = variants();
+		static final List<String> FOLDERS = folders( VARIANTS );
+		// The folder for a baseline build, as ever, musl or not
+		static final String FOLDER = OS + "/" + ARCH;
+
+		static private List<String> variants() {
+			List<String> result = new ArrayList<String>();
+			if( ARCH.equals( X86_64 ) && !OS.equals( "Mac" ) &&
+				!OS.equals( "Windows" ) ) {
+				for( int level = CpuFeatures.x86_64Level(); level > 1;
+					 level-- )
+					result.add( ARCH + "-v" + level );
+			}
+			result.add( ARCH );
+			return Collections.unmodifiableList( result );
+		}
+
+		static List<String> folders( List<String> archFolders ) {
+			List<String> result = new ArrayList<String>();
+			if( MUSL )
+				for( String arch : archFolders )
+					result.add( OS + MUSLSUFFIX + "/" + arch );
+			for( String arch : archFolders )
+				result.add( OS + "/" + arch );
+			return Collections.unmodifiableList( result );
+		}
+	}
+
+    static String detectArchName() {
         // if running Linux on ARM, need to determine ABI of JVM
         String osArch = System.getProperty("os.arch");
         if (osArch.startsWith("arm") &&
 			System.getProperty("os.name").contains("Linux")) {
-            String javaHome = System.getProperty("java.home");
-            try {
-                // determine if first JVM found uses ARM hard-float ABI
-                String[] cmdarray =
-					{ "/bin/sh", "-c", "find '" + javaHome +
-					  "' -name 'libjvm.so' | head -1 | xargs readelf -A | " +
-					  "grep 'Tag_ABI_VFP_args: VFP registers'" };
-                int exitCode = Runtime.getRuntime().exec(cmdarray).waitFor();
-                if (exitCode == 0)
-                    return "armhf";
-            }
-            catch (IOException e) {
-                // ignored: fall back to "arm" arch (soft-float ABI)
-            }
-            catch (InterruptedException e) {
-                // ignored: fall back to "arm" arch (soft-float ABI)
-            }
+			if( isArmHardFloat() )
+				return "armhf";
+			// fall back to "arm" arch (soft-float ABI)
         } 
         else {
             String lc = osArch.toLowerCase(Locale.US);
@@ -121,6 +203,68 @@ public class OSInfo {
         return translateArchNameToFolderName(osArch);
     }
 
+	/*
+	  Does our VM use the ARM hard-float ABI?  We read the ELF
+	  attributes of the running executable, else of libjvm, rather
+	  than forking readelf (slow, and often not even installed).
+	*/
+	static private boolean isArmHardFloat() {
+		String javaHome = System.getProperty( "java.home" );
+		String[] candidates = { "/proc/self/exe",
+								javaHome + "/lib/server/libjvm.so",
+								javaHome + "/lib/client/libjvm.so",
+								javaHome + "/lib/arm/server/libjvm.so",
+								javaHome + "/lib/arm/client/libjvm.so" };
+		for( String candidate : candidates ) {
+			File f = new File( candidate );
+			if( !f.isFile() )
+				continue;
+			try {
+				ElfFile elf = ElfFile.open( f );
+				try {
+					if( elf.machine() != ElfFile.EM_ARM )
+						continue;
+					Boolean vfpArgs = elf.armVfpArgs();
+					if( vfpArgs != null )
+						return vfpArgs;
+					return (elf.flags() & ElfFile.EF_ARM_ABI_FLOAT_HARD) != 0;
+				} finally {
+					elf.close();
+				}
+			} catch( IOException ioe ) {
+				// try the next candidate
+			}
+		}
+		return false;
+	}
+
+	/*
+	  The program interpreter of the running executable names the C
+	  library, e.g. /lib/ld-musl-x86_64.so.1 vs
+	  /lib64/ld-linux-x86-64.so.2.  Failing that, look for a musl
+	  loader in /lib.
+	*/
+	static private boolean detectMusl() {
+		try {
+			ElfFile elf = ElfFile.open( new File( "/proc/self/exe" ) );
+			try {
+				String interpreter = elf.interpreter();
+				if( interpreter != null )
+					return interpreter.contains( "musl" );
+			} finally {
+				elf.close();
+			}
+		} catch( IOException ioe ) {
+			// fall through
+		}
+		String[] names = new File( "/lib" ).list();
+		if( names != null )
+			for( String name : names )
+				if( name.startsWith( "ld-musl-" ) )
+					return true;
+		return false;
+	}
+
     static String translateOSNameToFolderName(String osName) {
         if (osName.contains("Windows")) {
             return "Windows";
@@ -151,6 +295,13 @@ public class OSInfo {
     public static final String IA64 = "ia64";
     public static final String PPC = "ppc";
     public static final String PPC64 = "ppc64";
+    public static final String AARCH64 = "aarch64";
+
+	/*
+	  Appended to the OS name in the folder path of a native library
+	  built against musl, e.g. Linux-musl/x86_64
+	*/
+    public static final String MUSLSUFFIX = "-musl";
 
     private static Map<String, String> archMapping =
 		new HashMap<String, String>();
@@ -191,6 +342,10 @@ public class OSInfo {
 		archMapping.put("powerpc64", PPC64);
 		archMapping.put("power_pc64", PPC64);
 		archMapping.put("power_rs64", PPC64);
+
+        // ARM 64-bit mappings.  Mac on Apple Silicon reports aarch64 too
+		archMapping.put(AARCH64, AARCH64);
+		archMapping.put("arm64", AARCH64);
     }
 
 
@@ -206,6 +361,11 @@ public class OSInfo {
 					System.out.print(getArchName());
 					return;
 				}
+				else if ("--all".equals(args[0])) {
+					for (String folder : getNativeLibFolderPathsForCurrentOS())
+						System.out.println(folder);
+					return;
+				}
 			}
 			
 			System.out.print(getNativeLibFolderPathForCurrentOS());
@@ -0,0 +1,171 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The library payloads materialized so far by this loader, by
+ * digest, so that byte-identical payloads bundled under different
+ * prefixes (as in several shaded jars each carrying the same wrapper
+ * library) are extracted once, not once per prefix.  A later library
+ * with the same digest then, according to its 'dedup' setting
+ *
+ * link (the default): gets a hard link to the first's file, under its
+ * own name.  One copy on disk, and, the dynamic linker recognising
+ * the same file (inode) again, one copy in memory.  Each library is
+ * still handed to System.load (so has its JNI_OnLoad called),
+ *
+ * share: gets the first's very file, so System.load is a no-op (the
+ * VM has that path loaded already) and its JNI_OnLoad is not re-run,
+ *
+ * off: is extracted afresh, as if no duplicate.
+ *
+ * The digest is that of the bundled bytes, known for free from the
+ * prefix's index (see NativeManifest).  Without an index there is no
+ * deduplication, rather than a hashing pass on every load.
+ */
+final class Payloads {
+
+	enum Policy {
+		OFF, LINK, SHARE;
+
+		static Policy of( String s ) {
+			return s == null ? LINK : valueOf( s.trim().toUpperCase() );
+		}
+	}
+
+	private Payloads() {
+	}
+
+	/**
+	 * Where a link is to go, asked for only once a link is to be made,
+	 * since naming it may have costs (see Janitor.newFile)
+	 */
+	interface Target {
+		File get() throws IOException;
+	}
+
+	/**
+	 * A file for a payload seen before, per policy, or null if none
+	 * (or the hard link failed).  A hit is counted.
+	 *
+	 * @param target where a link is to go
+	 */
+	static File reuse( String digest, Policy policy, Target target ) {
+		File shared = files.get( digest );
+		if( shared == null || !shared.isFile() )
+			return null;
+		File result;
+		if( policy == Policy.SHARE ) {
+			result = shared;
+		} else {
+			try {
+				result = target.get();
+				if( !result.exists() )
+					Files.createLink( result.toPath(), shared.toPath() );
+			} catch( IOException|UnsupportedOperationException e ) {
+				log.debug( "Cannot link " + shared + ": " + e );
+				return null;
+			}
+		}
+		hits.incrementAndGet();
+		bytesSaved.addAndGet( shared.length() );
+		log.debug( "Duplicate payload " + digest + ": " + result );
+		return result;
+	}
+
+	/**
+	 * Record a payload freshly materialized, if the first for its
+	 * digest
+	 */
+	static void put( String digest, File file ) {
+		File prior = files.putIfAbsent( digest, file );
+		if( prior != null && !prior.isFile() )
+			files.replace( digest, prior, file );
+	}
+
+	/**
+	 * A payload's file replaced, e.g. by a re-extraction or adoption
+	 * after a CRaC restore (see Crac).  Any digest mapped to the old
+	 * file now maps to the new.
+	 */
+	static void moved( File from, File to ) {
+		for( Map.Entry<String,File> me : files.entrySet() )
+			if( me.getValue().equals( from ) )
+				files.replace( me.getKey(), from, to );
+	}
+
+	/**
+	 * Forget payloads whose files are gone, so that nothing is
+	 * linked to (or shares) them
+	 */
+	static void evictMissing() {
+		for( Map.Entry<String,File> me : files.entrySet() )
+			if( !me.getValue().isFile() )
+				files.remove( me.getKey(), me.getValue() );
+	}
+
+	static long hits() {
+		return hits.get();
+	}
+
+	static long bytesSaved() {
+		return bytesSaved.get();
+	}
+
+	static private final ConcurrentMap<String,File> files =
+		new ConcurrentHashMap<String,File>();
+
+	static private final AtomicLong hits = new AtomicLong();
+
+	static private final AtomicLong bytesSaved = new AtomicLong();
+
+	static private final Log log = LogFactory.getLog( Payloads.class );
+}
+
+// eof
@@ -0,0 +1,287 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Offline pre-extraction of bundled native libraries, e.g. at
+ * container image build time, so that at run time NativeLoader finds
+ * every payload already on disk and extracts nothing.  Then
+ * container cold starts do no extraction I/O and the application can
+ * run with a read-only root filesystem.  Run as
+ *
+ * java -cp native-lib-loader.jar:APP.jar:...
+ *   edu.uw.apl.nativelibloader.Prebake COMMAND ...
+ *
+ * with COMMAND one of
+ *
+ * list [JAR|DIR...]: print every native payload bundled, for any
+ * platform, in the jars or directories named (default: the classpath)
+ *
+ * extract CACHEDIR [JAR|DIR...]: prepare every library bundled for
+ * the current platform exactly as a load with $prefix.cache set and
+ * $prefix.path=CACHEDIR would (see ExtractionCache), dependencies
+ * included.  The files written are then recorded, with their SHA-256
+ * digests, in CACHEDIR/.prebake.  The jars named must also be on the
+ * classpath, whence their resources are read: a library not found
+ * there is reported as failed.
+ *
+ * verify CACHEDIR: check every file recorded in CACHEDIR/.prebake is
+ * present and intact.
+ *
+ * Exit status is non-zero on any failure.  The application must then
+ * run with those same cache and path settings, for each prefix, e.g.
+ * -Dcom.foo.cache=true -Dcom.foo.path=CACHEDIR.
+ */
+public class Prebake {
+
+	static public void main( String[] args ) throws IOException {
+		if( args.length < 1 )
+			usage();
+		String command = args[0];
+		int status;
+		if( command.equals( "list" ) ) {
+			for( String s : list( files( args, 1 ) ) )
+				System.out.println( s );
+			status = 0;
+		} else if( command.equals( "extract" ) && args.length > 1 ) {
+			status = extract( new File( args[1] ), files( args, 2 ),
+							  System.out ) ? 0 : 1;
+		} else if( command.equals( "verify" ) && args.length == 2 ) {
+			status = verify( new File( args[1] ), System.out ) ? 0 : 1;
+		} else {
+			usage();
+			return;
+		}
+		System.exit( status );
+	}
+
+	static private void usage() {
+		System.err.println( "Usage: Prebake list [JAR|DIR...]" );
+		System.err.println( "       Prebake extract CACHEDIR [JAR|DIR...]" );
+		System.err.println( "       Prebake verify CACHEDIR" );
+		System.exit( 2 );
+	}
+
+	static private List<File> files( String[] args, int from ) {
+		if( args.length == from )
+			return NativeLoaderAgent.classPath();
+		List<File> result = new ArrayList<File>();
+		for( int i = from; i < args.length; i++ )
+			result.add( new File( args[i] ) );
+		return result;
+	}
+
+	/**
+	 * @return the resource names of all native payloads, for all
+	 * platforms, i.e. PREFIX/native/FOLDER/NAME, bar any index
+	 */
+	static Set<String> list( List<File> files ) {
+		Set<String> result = new TreeSet<String>();
+		for( File f : files ) {
+			for( String path : NativeLoaderAgent.resources( f ) ) {
+				int n = path.lastIndexOf( "/native/" );
+				if( n < 1 )
+					continue;
+				String rest = path.substring( n + "/native/".length() );
+				if( rest.indexOf( '/' ) > 0 &&
+					!rest.equals( NativeManifest.RESOURCENAME ) )
+					result.add( path );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if every library found was extracted, and the
+	 * record written
+	 */
+	static boolean extract( File cacheDir, List<File> files,
+							PrintStream out ) throws IOException {
+		cacheDir = cacheDir.getCanonicalFile();
+		Map<String,Set<String>> libraries = NativeLoaderAgent.scan( files );
+
+		/*
+		  The cache settings, for the prefixes seen, as system
+		  properties, which Configuration consults first.  Restored
+		  afterwards, for when we are not alone in this VM.
+		*/
+		Map<String,String> saved = new HashMap<String,String>();
+		for( String prefix : libraries.keySet() ) {
+			set( prefix + ".cache", "true", saved );
+			set( prefix + ".path", cacheDir.getPath(), saved );
+		}
+		NativeLoader.refreshConfiguration();
+		boolean ok = true;
+		try {
+			for( Map.Entry<String,Set<String>> me : libraries.entrySet() ) {
+				String prefix = me.getKey();
+				for( String libName : me.getValue() ) {
+					try {
+						NativeLoader.Linkage l = NativeLoader.prepare
+							( prefix, libName, new LoadTimings() );
+						if( l.file != null )
+							out.println( prefix + ":" + libName + " " +
+										 l.file );
+					} catch( IOException | RuntimeException e ) {
+						out.println( prefix + ":" + libName + " FAILED " + e );
+						ok = false;
+					}
+				}
+			}
+		} finally {
+			for( Map.Entry<String,String> me : saved.entrySet() ) {
+				if( me.getValue() == null )
+					System.clearProperty( me.getKey() );
+				else
+					System.setProperty( me.getKey(), me.getValue() );
+			}
+			NativeLoader.refreshConfiguration();
+		}
+		if( cacheDir.isDirectory() )
+			record( cacheDir );
+		return ok;
+	}
+
+	static private void set( String key, String value,
+							 Map<String,String> saved ) {
+		saved.put( key, System.setProperty( key, value ) );
+	}
+
+	/*
+	  Lines 'SHA256 SIZE PATH', PATH relative to the cache dir, for
+	  all its files bar our own dotfiles (locks, temporaries, this
+	  record).  Written aside, then renamed into place.
+	*/
+	static private void record( File cacheDir ) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for( String path : walk( cacheDir ) ) {
+			File f = new File( cacheDir, path );
+			sb.append( ExtractionCache.digest( f ) ).append( ' ' ).
+				append( f.length() ).append( ' ' ).
+				append( path ).append( '\n' );
+		}
+		File tmp = new File( cacheDir, RECORD + ".tmp" );
+		Files.write( tmp.toPath(), sb.toString().getBytes
+					 ( StandardCharsets.UTF_8 ) );
+		Files.move( tmp.toPath(), new File( cacheDir, RECORD ).toPath(),
+					StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	static private Set<String> walk( File dir ) {
+		Set<String> result = new TreeSet<String>();
+		walk( dir, "", result );
+		return result;
+	}
+
+	static private void walk( File dir, String path, Set<String> result ) {
+		File[] fs = dir.listFiles();
+		if( fs == null )
+			return;
+		for( File f : fs ) {
+			if( f.getName().startsWith( "." ) )
+				continue;
+			if( f.isDirectory() )
+				walk( f, path + f.getName() + "/", result );
+			else if( f.isFile() )
+				result.add( path + f.getName() );
+		}
+	}
+
+	/**
+	 * @return true if the record exists and every file it lists is
+	 * present, of the recorded size and digest
+	 */
+	static boolean verify( File cacheDir, PrintStream out )
+		throws IOException {
+		File record = new File( cacheDir, RECORD );
+		if( !record.isFile() ) {
+			out.println( "No record: " + record );
+			return false;
+		}
+		boolean ok = true;
+		int n = 0;
+		for( String line : Files.readAllLines( record.toPath(),
+											   StandardCharsets.UTF_8 ) ) {
+			String[] fields = line.split( " ", 3 );
+			long length = -1;
+			if( fields.length == 3 ) {
+				try {
+					length = Long.parseLong( fields[1] );
+				} catch( NumberFormatException nfe ) {
+				}
+			}
+			if( length < 0 ) {
+				out.println( "Malformed: " + line );
+				ok = false;
+				continue;
+			}
+			n++;
+			File f = new File( cacheDir, fields[2] );
+			String problem = null;
+			if( !f.isFile() )
+				problem = "MISSING";
+			else if( f.length() != length )
+				problem = "SIZE " + f.length();
+			else if( !fields[0].equals( ExtractionCache.digest( f ) ) )
+				problem = "DIGEST";
+			if( problem != null ) {
+				out.println( fields[2] + " " + problem );
+				ok = false;
+			}
+		}
+		out.println( n + " files, " + (ok ? "OK" : "FAILED") );
+		return ok;
+	}
+
+	static final String RECORD = ".prebake";
+}
+
+// eof
@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * Startup load profiles: what a CDS archive is to classes, for native
+ * library payloads.  With system property
+ * edu.uw.apl.nativelibloader.profile set to some file, each run
+ *
+ * records every library loaded, in load order, with the time since
+ * NativeLoader was first touched, as lines 'MILLIS PREFIX LIBNAME'.
+ * Kept in memory, then written to FILE at (clean) exit, via a
+ * temporary file renamed into place, and only if anything was
+ * loaded: a run that loads nothing leaves the last profile be,
+ *
+ * replays the FILE recorded by the previous run, if any: as soon as
+ * NativeLoader is first touched, every library listed is prepared
+ * (found and extracted, not loaded) in parallel in the background.
+ * The application's own loads, from whatever static initializers,
+ * then find the work done, or in progress, and just link.
+ *
+ * A stale profile costs little: a library listed but no longer found
+ * is ignored (its load, if ever made, proceeds as normal) and one not
+ * listed is loaded as normal.  The next run records afresh.  Property
+ * edu.uw.apl.nativelibloader.profile.mode, 'record' or 'replay',
+ * restricts a run to just the one.
+ */
+final class Profile {
+
+	private Profile() {
+	}
+
+	// From NativeLoader's static initializer
+	static void start() {
+		String file = System.getProperty( PROPERTY );
+		if( file == null )
+			return;
+		String mode = System.getProperty( PROPERTY + ".mode", "" );
+		profile = new File( file ).getAbsoluteFile();
+		if( !mode.equals( "record" ) && profile.isFile() ) {
+			final File f = profile;
+			NativeLoader.defaultExecutor().execute( () -> replay( f ) );
+		}
+		if( !mode.equals( "replay" ) ) {
+			recording = new ArrayList<String>();
+			Runtime.getRuntime().addShutdownHook
+				( new Thread( Profile::save, "NativeLoader-profile" ) );
+		}
+	}
+
+	static void loaded( Library library ) {
+		List<String> r = recording;
+		if( r == null )
+			return;
+		long millis = (System.nanoTime() - START) / 1000000;
+		synchronized( r ) {
+			r.add( millis + " " + library.prefix + " " + library.libName );
+		}
+	}
+
+	static void replay( File f ) {
+		List<String[]> entries;
+		try {
+			entries = read( f );
+		} catch( IOException ioe ) {
+			log.warn( "Cannot read profile " + f + ": " + ioe );
+			return;
+		}
+		log.debug( "Replaying " + entries.size() + " from " + f );
+		for( String[] e : entries )
+			NativeLoader.prefetch( e[0], e[1],
+								   NativeLoader.defaultExecutor() );
+	}
+
+	/**
+	 * @return prefix,libName pairs, in recorded order, ignoring any
+	 * malformed lines
+	 */
+	static List<String[]> read( File f ) throws IOException {
+		Set<String> seen = new LinkedHashSet<String>();
+		List<String[]> result = new ArrayList<String[]>();
+		for( String line : Files.readAllLines( f.toPath(),
+											   StandardCharsets.UTF_8 ) ) {
+			line = line.trim();
+			if( line.isEmpty() || line.startsWith( "#" ) )
+				continue;
+			String[] fields = line.split( "\\s+" );
+			if( fields.length != 3 || !seen.add( fields[1] + " " +
+												 fields[2] ) )
+				continue;
+			result.add( new String[] { fields[1], fields[2] } );
+		}
+		return result;
+	}
+
+	static void save() {
+		List<String> r = recording;
+		if( r == null )
+			return;
+		StringBuilder sb = new StringBuilder
+			( "# native-lib-loader startup profile: MILLIS PREFIX LIBNAME\n" );
+		synchronized( r ) {
+			if( r.isEmpty() )
+				return;
+			for( String line : r )
+				sb.append( line ).append( '\n' );
+		}
+		/*
+		  Several VMs may share the one profile, so each writes its
+		  own temporary file, whichever rename lands last winning.
+		*/
+		Path tmp = null;
+		try {
+			File dir = profile.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			tmp = Files.createTempFile( dir.toPath(),
+										"." + profile.getName() + "-",
+										".tmp" );
+			Files.write( tmp, sb.toString().getBytes( StandardCharsets.UTF_8 ) );
+			Files.move( tmp, profile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING );
+		} catch( IOException ioe ) {
+			log.warn( "Cannot save profile " + profile + ": " + ioe );
+			if( tmp != null )
+				tmp.toFile().delete();
+		}
+	}
+
+	static final String PROPERTY = "edu.uw.apl.nativelibloader.profile";
+
+	static private final long START = System.nanoTime();
+
+	static private File profile;
+
+	static private volatile List<String> recording;
+
+	static private final Log log = LogFactory.getLog( Profile.class );
+}
+
+// eof
@@ -0,0 +1,257 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * A minimal reader of a zip (jar) file's central directory, giving
+ * for each entry its compression method, CRC, sizes and, crucially, the
+ * file offset of its data.  java.util.zip.ZipFile exposes all but
+ * the last, which we need to copy a STORED entry's bytes straight
+ * out of the jar (see Extractor).
+ *
+ * No Zip64 support: an entry whose sizes or offset overflow 32 bits
+ * is simply not listed, and callers fall back to stream access.  A
+ * Zip64 archive, e.g. one of more than 65535 entries, or with its
+ * central directory past 4GB, reads as empty.
+ */
+final class ZipDirectory {
+
+	static final class Entry {
+		Entry( String name, int method, int crc, long compressedSize,
+			   long size, long localHeaderOffset ) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		boolean isStored() {
+			return method == STORED;
+		}
+
+		final String name;
+		final int method;
+		final int crc;
+		final long compressedSize;
+		final long size;
+		final long localHeaderOffset;
+	}
+
+	private ZipDirectory( File file, long length, long lastModified,
+						  Map<String,Entry> entries ) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.entries = entries;
+	}
+
+	/**
+	 * The directory of the supplied zip file, read once and then
+	 * cached for as long as the file's size and timestamp are
+	 * unchanged.
+	 */
+	static ZipDirectory of( File zipFile ) throws IOException {
+		ZipDirectory zd = cache.get( zipFile );
+		if( zd != null && zd.length == zipFile.length() &&
+			zd.lastModified == zipFile.lastModified() )
+			return zd;
+		zd = read( zipFile );
+		cache.put( zipFile, zd );
+		return zd;
+	}
+
+	/**
+	 * Cache a directory read separately, as if by of().
+	 */
+	static void remember( ZipDirectory zd ) {
+		cache.put( zd.file, zd );
+	}
+
+	Entry get( String name ) {
+		return entries.get( name );
+	}
+
+	Iterable<Entry> entries() {
+		return entries.values();
+	}
+
+	File file() {
+		return file;
+	}
+
+	/**
+	 * The offset in the zip file of the entry's (possibly
+	 * compressed) data, found by reading the entry's local header,
+	 * whose 'extra' field length need not match the central one.
+	 */
+	long dataOffset( Entry e, FileChannel fc ) throws IOException {
+		ByteBuffer bb = ByteBuffer.allocate( LOCALHEADERSIZE ).
+			order( ByteOrder.LITTLE_ENDIAN );
+		readFully( fc, bb, e.localHeaderOffset );
+		if( bb.getInt( 0 ) != LOCALHEADERSIG )
+			throw new IOException( "Bad local header: " + e.name + " in " +
+								   file );
+		int nameLength = bb.getShort( 26 ) & 0xffff;
+		int extraLength = bb.getShort( 28 ) & 0xffff;
+		return e.localHeaderOffset + LOCALHEADERSIZE + nameLength +
+			extraLength;
+	}
+
+	/**
+	 * The directory of the supplied zip file, read afresh and not
+	 * cached, e.g. when scanning many jars (see ClasspathIndex), most
+	 * of no further interest.
+	 */
+	static ZipDirectory read( File zipFile ) throws IOException {
+		long length = zipFile.length();
+		long lastModified = zipFile.lastModified();
+		FileChannel fc = FileChannel.open( zipFile.toPath(),
+										   StandardOpenOption.READ );
+		try {
+			/*
+			  The end of central directory record is the last thing
+			  in the file, bar a trailing comment of up to 64K.
+			*/
+			int tailLength = (int)Math.min( length, 0xffff + EOCDSIZE );
+			ByteBuffer tail = ByteBuffer.allocate( tailLength ).
+				order( ByteOrder.LITTLE_ENDIAN );
+			readFully( fc, tail, length - tailLength );
+			int eocd = -1;
+			for( int i = tailLength - EOCDSIZE; i >= 0; i-- ) {
+				if( tail.getInt( i ) == EOCDSIG ) {
+					eocd = i;
+					break;
+				}
+			}
+			if( eocd == -1 )
+				throw new IOException( "Not a zip file: " + zipFile );
+			int count = tail.getShort( eocd + 10 ) & 0xffff;
+			long cdSize = tail.getInt( eocd + 12 ) & 0xffffffffL;
+			long cdOffset = tail.getInt( eocd + 16 ) & 0xffffffffL;
+			boolean zip64 = count == 0xffff || cdSize == ZIP64MAGIC ||
+				cdOffset == ZIP64MAGIC ||
+				(eocd >= ZIP64LOCATORSIZE &&
+				 tail.getInt( eocd - ZIP64LOCATORSIZE ) == ZIP64LOCATORSIG);
+			if( zip64 || cdOffset + cdSize > length ) {
+				Map<String,Entry> none = Collections.emptyMap();
+				return new ZipDirectory( zipFile, length, lastModified, none );
+			}
+
+			ByteBuffer cd = ByteBuffer.allocate( (int)cdSize ).
+				order( ByteOrder.LITTLE_ENDIAN );
+			readFully( fc, cd, cdOffset );
+			Map<String,Entry> entries = new HashMap<String,Entry>( count * 2 );
+			int pos = 0;
+			while( pos + CENTRALHEADERSIZE <= cdSize &&
+				   cd.getInt( pos ) == CENTRALHEADERSIG ) {
+				int method = cd.getShort( pos + 10 ) & 0xffff;
+				int crc = cd.getInt( pos + 16 );
+				long compressedSize = cd.getInt( pos + 20 ) & 0xffffffffL;
+				long size = cd.getInt( pos + 24 ) & 0xffffffffL;
+				int nameLength = cd.getShort( pos + 28 ) & 0xffff;
+				int extraLength = cd.getShort( pos + 30 ) & 0xffff;
+				int commentLength = cd.getShort( pos + 32 ) & 0xffff;
+				long offset = cd.getInt( pos + 42 ) & 0xffffffffL;
+				byte[] nameBytes = new byte[nameLength];
+				cd.position( pos + CENTRALHEADERSIZE );
+				cd.get( nameBytes );
+				// As for java.util.zip, names are UTF-8, flagged or not
+				String name = new String( nameBytes, UTF8 );
+				if( compressedSize != ZIP64MAGIC && size != ZIP64MAGIC &&
+					offset != ZIP64MAGIC )
+					entries.put( name, new Entry( name, method, crc,
+												  compressedSize, size,
+												  offset ) );
+				pos += CENTRALHEADERSIZE + nameLength + extraLength +
+					commentLength;
+			}
+			return new ZipDirectory( zipFile, length, lastModified, entries );
+		} finally {
+			fc.close();
+		}
+	}
+
+	static void readFully( FileChannel fc, ByteBuffer bb, long position )
+		throws IOException {
+		while( bb.hasRemaining() ) {
+			int n = fc.read( bb, position );
+			if( n < 0 )
+				throw new IOException( "Unexpected EOF" );
+			position += n;
+		}
+	}
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	private final Map<String,Entry> entries;
+
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+
+	static private final int LOCALHEADERSIG = 0x04034b50;
+	static private final int CENTRALHEADERSIG = 0x02014b50;
+	static private final int EOCDSIG = 0x06054b50;
+	static private final int LOCALHEADERSIZE = 30;
+	static private final int CENTRALHEADERSIZE = 46;
+	static private final int EOCDSIZE = 22;
+	static private final int ZIP64LOCATORSIG = 0x07064b50;
+	static private final int ZIP64LOCATORSIZE = 20;
+	static private final long ZIP64MAGIC = 0xffffffffL;
+
+	static private final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	static private final Map<File,ZipDirectory> cache =
+		new ConcurrentHashMap<File,ZipDirectory>();
+}
+
+// eof
@@ -0,0 +1,98 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.SymbolLookup;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * @author Stuart Maclean
+ */
+
+/**
+ * The Foreign Function and Memory (Java 22+) alternative to {@link
+ * NativeLoader#load}: the library is found and extracted exactly as
+ * for load (configuration, variants, dependencies, cache and all),
+ * but, rather than handed to System.load, opened in a caller-supplied
+ * Arena, and a SymbolLookup over it returned, for use in downcalls.
+ * Closing the arena unloads the library (and any bundled
+ * dependencies, opened in the same arena), so rarely used libraries
+ * need not stay mapped for the life of the class loader.
+ *
+ * Shipped in the Java 22 part of the multi-release jar only.  Such
+ * libraries are not entered in NativeLoader's registry: each lookup
+ * opens its library anew, in its own arena.  Its files though are
+ * extracted only once, and reused by later lookups while intact.
+ */
+public final class NativeSymbols {
+
+	private NativeSymbols() {
+	}
+
+	/**
+	 * As {@link #lookup(String,String,Arena)}, the prefix being a
+	 * class's own package name
+	 */
+	static public SymbolLookup lookup( Class<?> c, String libName,
+									   Arena arena ) throws IOException {
+		return lookup( c.getPackageName(), libName, arena );
+	}
+
+	/**
+	 * @return a lookup of the symbols of prefix/libName (not those
+	 * of its dependencies), valid until arena is closed.  If loading
+	 * of the library is disabled, a lookup finding nothing.
+	 *
+	 * @throws IllegalStateException if the library cannot be found,
+	 * as for load
+	 */
+	static public SymbolLookup lookup( String prefix, String libName,
+									   Arena arena ) throws IOException {
+		List<String> libraries = NativeLoader.resolve( prefix, libName );
+		SymbolLookup result = name -> Optional.empty();
+		for( String library : libraries ) {
+			Path p = Path.of( library );
+			result = p.isAbsolute() ?
+				SymbolLookup.libraryLookup( p, arena ) :
+				SymbolLookup.libraryLookup( library, arena );
+		}
+		return result;
+	}
+}
+
+// eof
@@ -0,0 +1,140 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+public class ClasspathIndexTest extends junit.framework.TestCase {
+
+	protected void setUp() throws IOException {
+		dir = new File( System.getProperty( "java.io.tmpdir" ),
+						"nativeloader-test-" + UUID.randomUUID() );
+		dir.mkdirs();
+		jar = new File( dir, "with space.jar" );
+		JarOutputStream jos = new JarOutputStream
+			( new FileOutputStream( jar ) );
+		try {
+			add( jos, "com/foo/Foo.class", "class" );
+			add( jos, "com/foo/native/Linux/x86_64/libfoo.so", "from jar" );
+			add( jos, BASE + "/native/Linux/x86_64/libartifact.so",
+				 "shadowing" );
+		} finally {
+			jos.close();
+		}
+	}
+
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testBuild() throws IOException {
+		File classes = new File( "target/test-classes" );
+		ClasspathIndex index = ClasspathIndex.build
+			( Arrays.asList( jar, classes ) );
+
+		URL url = index.get( "/com/foo/native/Linux/x86_64/libfoo.so" );
+		assertNotNull( url );
+		assertEquals( "from jar", read( url ) );
+		assertNull( index.get( "/com/foo/Foo.class" ) );
+
+		// First on the path wins
+		url = index.get( "/" + BASE + "/native/Linux/x86_64/libartifact.so" );
+		assertEquals( "shadowing", read( url ) );
+
+		// From the directory
+		url = index.get( "/" + BASE + "/dedupa/native/Linux/x86_64/libdup.so.gz" );
+		assertNotNull( url );
+		assertEquals( "file", url.getProtocol() );
+		assertNotNull( index.get( "/" + BASE + "/dedupa/native/index.properties" ) );
+
+		assertNull( index.get( "/com/foo/native/Linux/x86_64/libfoo.so.gz" ) );
+	}
+
+	/**
+	   A hit comes from the index, a miss from the class loader, even
+	   for a folder the index has entries for.
+	*/
+	public void testLookup() throws IOException {
+		ClasspathIndex index = ClasspathIndex.build( Arrays.asList( jar ) );
+		String name = "/" + BASE + "/native/Linux/x86_64/libartifact.so";
+		assertEquals( "shadowing", read( index.lookup( name ) ) );
+		name = "/" + BASE + "/dedupa/native/index.properties";
+		assertNull( index.get( name ) );
+		assertNotNull( index.lookup( name ) );
+		assertNull( index.lookup( "/com/foo/native/Linux/x86_64/libfoo.so.gz" ) );
+	}
+
+	// Extraction via an index URL, straight from the remembered directory
+	public void testExtract() throws IOException {
+		ClasspathIndex index = ClasspathIndex.build( Arrays.asList( jar ) );
+		URL url = index.get( "/com/foo/native/Linux/x86_64/libfoo.so" );
+		File target = new File( dir, "libfoo.so" );
+		assertEquals( 8, Extractor.extract( url, target, null ) );
+		assertEquals( "from jar", FileUtils.readFileToString( target, "UTF-8" ) );
+	}
+
+	static private void add( JarOutputStream jos, String name, String content )
+		throws IOException {
+		jos.putNextEntry( new ZipEntry( name ) );
+		jos.write( content.getBytes( "UTF-8" ) );
+		jos.closeEntry();
+	}
+
+	static private String read( URL url ) throws IOException {
+		InputStream is = url.openStream();
+		try {
+			return IOUtils.toString( is, "UTF-8" );
+		} finally {
+			is.close();
+		}
+	}
+
+	static private final String BASE =
+		NativeLoader.class.getPackage().getName().replace( '.', '/' );
+
+	private File dir, jar;
+}
+
+// eof
@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+public class CracTest extends junit.framework.TestCase {
+
+	/**
+	   Against the stand-in org.crac under src/test/java, whose global
+	   Context, like the real one, is of a class not public.  The
+	   checkpoint notice then reaches our Resource.
+	*/
+	public void testRegister() throws Exception {
+		assertTrue( Crac.register() );
+		org.crac.Core.getGlobalContext().beforeCheckpoint( null );
+	}
+
+	public void testDisabled() {
+		System.setProperty( Crac.DISABLED, "true" );
+		try {
+			assertFalse( Crac.register() );
+		} finally {
+			System.clearProperty( Crac.DISABLED );
+		}
+	}
+
+	/**
+	   Three libraries extracted and loaded, then a 'checkpoint', the
+	   loss of one's file, a same-sized overwrite of another's, and a
+	   'restore'.  The lost and changed ones are extracted again, the
+	   other adopted into the new session, without a copy.  All stay
+	   loaded.  Copies of the VM's libzip stand in for
+	   bundled libraries.
+	*/
+	public void testRestore() throws IOException {
+		File zip = new File( System.getProperty( "java.home" ),
+							 "lib/" + System.mapLibraryName( "zip" ) );
+		if( !zip.isFile() )
+			return;
+		File dir = new File( "target/test-classes/hello/native/" +
+							 OSInfo.getNativeLibFolderPathForCurrentOS() );
+		File lostRes = new File( dir, System.mapLibraryName( "zipLost" ) );
+		File keptRes = new File( dir, System.mapLibraryName( "zipKept" ) );
+		File changedRes = new File( dir,
+									System.mapLibraryName( "zipChanged" ) );
+		FileUtils.copyFile( zip, lostRes );
+		FileUtils.copyFile( zip, keptRes );
+		FileUtils.copyFile( zip, changedRes );
+		System.setProperty( "hello.alwaysExtract", "true" );
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoader.load( "hello", "zipLost" );
+			NativeLoader.load( "hello", "zipKept" );
+			NativeLoader.load( "hello", "zipChanged" );
+			Library lost = NativeLoader.library( "hello", "zipLost" );
+			Library kept = NativeLoader.library( "hello", "zipKept" );
+			Library changed = NativeLoader.library( "hello", "zipChanged" );
+			File lostFile = lost.file;
+			File keptFile = kept.file;
+			File changedFile = changed.file;
+			String session = Janitor.session;
+			assertTrue( keptFile.getName().contains( session ) );
+
+			Crac.beforeCheckpoint();
+			assertTrue( lostFile.delete() );
+			// A new inode: writing into the mapped original would crash us
+			long length = changedFile.length();
+			assertTrue( changedFile.delete() );
+			FileUtils.writeByteArrayToFile( changedFile,
+											new byte[(int)length] );
+			Crac.afterRestore();
+
+			assertFalse( session.equals( Janitor.session ) );
+			assertTrue( lost.loaded );
+			assertTrue( lost.file.isFile() );
+			assertFalse( lost.file.equals( lostFile ) );
+			assertTrue( kept.loaded );
+			assertTrue( kept.file.isFile() );
+			assertTrue( kept.file.getName().contains( Janitor.session ) );
+			assertEquals( keptFile.length(), kept.file.length() );
+			assertFalse( changed.file.equals( changedFile ) );
+			assertTrue( FileUtils.contentEquals( zip, changed.file ) );
+		} finally {
+			System.clearProperty( "hello.alwaysExtract" );
+			NativeLoader.refreshConfiguration();
+			lostRes.delete();
+			keptRes.delete();
+			changedRes.delete();
+		}
+	}
+}
+
+// eof
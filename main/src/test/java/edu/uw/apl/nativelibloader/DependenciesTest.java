@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.io.FileUtils;
+
+public class DependenciesTest extends junit.framework.TestCase {
+
+	public void testNames() {
+		Map<String,String> siblings = new HashMap<String,String>();
+		siblings.put( "libbar.so", "/x/native/Linux/x86_64/libbar.so.gz" );
+		assertEquals( "libbar.so",
+					  Dependencies.match( "libbar.so", siblings ) );
+		assertEquals( "libbar.so",
+					  Dependencies.match( "libbar.so.1", siblings ) );
+		assertNull( Dependencies.match( "libbarn.so", siblings ) );
+		assertNull( Dependencies.match( "libc.so.6", siblings ) );
+
+		String mapped = System.mapLibraryName( "bar" );
+		assertEquals( "bar", Dependencies.libName( mapped ) );
+		assertNull( Dependencies.libName( "bar" ) );
+	}
+
+	/**
+	   The VM's own libjava needs its libjvm, so serves as a two-node
+	   graph, with the 'resources' being just the files themselves.
+	*/
+	public void testResolveVM() throws IOException {
+		File lib = new File( System.getProperty( "java.home" ), "lib" );
+		File java = new File( lib, "libjava.so" );
+		File jvm = new File( lib, "server/libjvm.so" );
+		if( !java.isFile() || !jvm.isFile() )
+			return;
+		Map<String,String> siblings = new HashMap<String,String>();
+		siblings.put( "libjvm.so", jvm.getPath() );
+		Executor direct = r -> r.run();
+		List<Dependencies.Node> nodes = Dependencies.resolve
+			( java.getPath(), java, siblings, r -> new File( r ), direct );
+		assertNotNull( nodes );
+		assertEquals( 2, nodes.size() );
+		assertEquals( "libjvm.so", nodes.get( 0 ).name );
+		assertEquals( "libjava.so", nodes.get( 1 ).name );
+
+		File parent = new File( "target/deps" );
+		FileUtils.deleteQuietly( parent );
+		parent.mkdirs();
+		File dir = Dependencies.layout( nodes, parent, "vm", true );
+		for( Dependencies.Node n : nodes ) {
+			assertEquals( dir, n.file.getParentFile() );
+			assertTrue( n.file.isFile() );
+		}
+		// Same content, same directory
+		nodes = Dependencies.resolve
+			( java.getPath(), java, siblings, r -> new File( r ), direct );
+		assertEquals( dir, Dependencies.layout( nodes, parent, "vm", true ) );
+	}
+}
+
+// eof
@@ -0,0 +1,100 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+public class ExtractionLockTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory( "extractionlock" ).toFile();
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	/**
+	   A second locker, even in the same VM, waits for the first to
+	   release.
+	*/
+	public void testExclusive() throws Exception {
+		final File f = new File( dir, ".x.lock" );
+		final AtomicLong acquired = new AtomicLong();
+		final CountDownLatch locked = new CountDownLatch( 1 );
+		ExtractionLock first = ExtractionLock.acquire( f );
+		Thread t = new Thread( () -> {
+				try {
+					locked.countDown();
+					ExtractionLock second = ExtractionLock.acquire( f );
+					acquired.set( System.nanoTime() );
+					second.close();
+				} catch( Exception e ) {
+					throw new RuntimeException( e );
+				}
+			} );
+		t.start();
+		locked.await();
+		Thread.sleep( 200 );
+		long released = System.nanoTime();
+		first.close();
+		t.join();
+		assertTrue( acquired.get() >= released );
+	}
+
+	/**
+	   The pid-file fallback breaks a lock whose owner is dead
+	*/
+	public void testStalePidFile() throws Exception {
+		File f = new File( dir, ".x.lock.pid" );
+		Files.write( f.toPath(), ("" + Integer.MAX_VALUE).getBytes
+					 ( StandardCharsets.UTF_8 ) );
+		ExtractionLock lock = ExtractionLock.acquirePidFile( f );
+		assertEquals( "" + Janitor.pid, new String
+					  ( Files.readAllBytes( f.toPath() ),
+						StandardCharsets.UTF_8 ).trim() );
+		lock.close();
+		assertFalse( f.exists() );
+	}
+
+	private File dir;
+}
+
+// eof
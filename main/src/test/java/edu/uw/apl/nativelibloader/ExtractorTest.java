@@ -0,0 +1,234 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+   Exercise each of the Extractor's copy strategies against a jar
+   built on the fly, checking both the bytes written and the digest
+   computed along the way.
+*/
+public class ExtractorTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		content = new byte[3 * 1024 * 1024 + 17];
+		// Compressible, but not trivially so
+		Random r = new Random( 42 );
+		for( int i = 0; i < content.length; i++ )
+			content[i] = (byte)(r.nextInt( 16 ) + 'a');
+		dir = File.createTempFile( "extractor", "" );
+		dir.delete();
+		dir.mkdirs();
+		jar = new File( dir, "test.jar" );
+		ZipOutputStream zos = new ZipOutputStream
+			( new FileOutputStream( jar ) );
+		ZipEntry stored = new ZipEntry( "a/native/libstored.so" );
+		stored.setMethod( ZipEntry.STORED );
+		stored.setSize( content.length );
+		CRC32 crc = new CRC32();
+		crc.update( content );
+		stored.setCrc( crc.getValue() );
+		zos.putNextEntry( stored );
+		zos.write( content );
+		zos.closeEntry();
+		zos.putNextEntry( new ZipEntry( "a/native/libdeflated.so" ) );
+		zos.write( content );
+		zos.closeEntry();
+		zos.putNextEntry( new ZipEntry( "a/native/libgzip.so.gz" ) );
+		GZIPOutputStream gzos = new GZIPOutputStream( zos );
+		gzos.write( content );
+		gzos.finish();
+		zos.closeEntry();
+
+		ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+		ChunkedGzip.compress( new ByteArrayInputStream( content ), chunked,
+							  512 * 1024 );
+		ZipEntry chunkedEntry = new ZipEntry( "a/native/libchunked.so.gz" );
+		chunkedEntry.setMethod( ZipEntry.STORED );
+		chunkedEntry.setSize( chunked.size() );
+		crc = new CRC32();
+		crc.update( chunked.toByteArray() );
+		chunkedEntry.setCrc( crc.getValue() );
+		zos.putNextEntry( chunkedEntry );
+		chunked.writeTo( zos );
+		zos.closeEntry();
+		zos.close();
+		chunkedBytes = chunked.toByteArray();
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testStored() throws Exception {
+		ZipDirectory.Entry e = ZipDirectory.of( jar ).
+			get( "a/native/libstored.so" );
+		assertTrue( e.isStored() );
+		check( "libstored.so" );
+	}
+
+	public void testDeflated() throws Exception {
+		ZipDirectory.Entry e = ZipDirectory.of( jar ).
+			get( "a/native/libdeflated.so" );
+		assertEquals( ZipDirectory.DEFLATED, e.method );
+		assertTrue( e.compressedSize < e.size );
+		check( "libdeflated.so" );
+	}
+
+	public void testFile() throws Exception {
+		File f = new File( dir, "libplain.so" );
+		FileUtils.writeByteArrayToFile( f, content );
+		URL url = f.toURI().toURL();
+		checkExtraction( url );
+	}
+
+	public void testGzip() throws Exception {
+		check( "libgzip.so.gz", null );
+	}
+
+	/**
+	   A chunked gzip payload decompresses (in parallel) to the
+	   original bytes, but remains a valid gzip stream too.
+	*/
+	public void testChunkedGzip() throws Exception {
+		check( "libchunked.so.gz", chunkedBytes );
+		GZIPInputStream gzis = new GZIPInputStream
+			( new ByteArrayInputStream( chunkedBytes ) );
+		assertTrue( Arrays.equals( content, IOUtils.toByteArray( gzis ) ) );
+	}
+
+	private void check( String libName ) throws Exception {
+		check( libName, null );
+	}
+
+	/**
+	   A gzip stream followed by more than the decoder buffers of
+	   something else: GZIPInputStream stops, quietly, at the
+	   garbage.  The extraction must not.
+	*/
+	public void testTrailingData() throws Exception {
+		File gz = new File( dir, "libtrailing.so.gz" );
+		OutputStream os = FileUtils.openOutputStream( gz );
+		try {
+			GZIPOutputStream gzos = new GZIPOutputStream( os );
+			gzos.write( content );
+			gzos.finish();
+			byte[] junk = new byte[256 * 1024];
+			Arrays.fill( junk, (byte)'x' );
+			os.write( junk );
+		} finally {
+			os.close();
+		}
+		try {
+			Extractor.extract( gz.toURI().toURL(), new File( dir, "out" ),
+							   null );
+			fail();
+		} catch( IOException ioe ) {
+			// Expected
+		}
+	}
+
+	/**
+	   A Zip64 end record, its directory offset and size the 32-bit
+	   sentinels, reads as an empty directory, not an error.
+	*/
+	public void testZip64() throws Exception {
+		File zip = new File( dir, "zip64.zip" );
+		ByteBuffer bb = ByteBuffer.allocate( 22 ).
+			order( ByteOrder.LITTLE_ENDIAN );
+		bb.putInt( 0x06054b50 ).putShort( (short)0 ).putShort( (short)0 ).
+			putShort( (short)0xffff ).putShort( (short)0xffff ).
+			putInt( 0xffffffff ).putInt( 0xffffffff ).putShort( (short)0 );
+		FileUtils.writeByteArrayToFile( zip, bb.array() );
+		assertFalse( ZipDirectory.read( zip ).entries().iterator().hasNext() );
+	}
+
+	/*
+	  @param stored the resource's bytes as bundled, if not the
+	  content itself
+	*/
+	private void check( String libName, byte[] stored ) throws Exception {
+		URL url = new URL( "jar:" + jar.toURI().toURL() + "!/a/native/" +
+						   libName );
+		assertNotNull( Extractor.localJar( url ) );
+		checkExtraction( url, stored );
+	}
+
+	private void checkExtraction( URL url ) throws Exception {
+		checkExtraction( url, null );
+	}
+
+	private void checkExtraction( URL url, byte[] stored ) throws Exception {
+		File out = new File( dir, "out" );
+		MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+		assertEquals( content.length, Extractor.extract( url, out, md ) );
+		assertTrue( Arrays.equals( content,
+								   FileUtils.readFileToByteArray( out ) ) );
+		if( stored != null )
+			assertTrue( Arrays.equals( MessageDigest.getInstance( "SHA-256" ).
+									   digest( stored ), md.digest() ) );
+		else if( Compression.of( url.getPath() ) == Compression.NONE )
+			assertTrue( Arrays.equals( MessageDigest.getInstance( "SHA-256" ).
+									   digest( content ), md.digest() ) );
+		// And without a digest, i.e. via transferTo where possible
+		assertEquals( content.length, Extractor.extract( url, out, null ) );
+		assertTrue( Arrays.equals( content,
+								   FileUtils.readFileToByteArray( out ) ) );
+	}
+
+	private byte[] content, chunkedBytes;
+	private File dir, jar;
+}
+
+// eof
@@ -0,0 +1,76 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class InPlaceTest extends junit.framework.TestCase {
+
+	public void testParse() {
+		List<InPlace.Mount> ms = mounts();
+		assertEquals( 4, ms.size() );
+		// Last mounted first
+		assertEquals( "/tmp/exec", ms.get(0).point );
+		assertEquals( "/mnt/my disk", ms.get(1).point );
+		assertTrue( ms.get(1).noexec );
+		assertFalse( ms.get(3).noexec );
+	}
+
+	// The deepest mount holding the file decides
+	public void testNoExec() {
+		List<InPlace.Mount> ms = mounts();
+		assertTrue( InPlace.isNoExec( new File( "/tmp/libfoo.so" ), ms ) );
+		assertTrue( InPlace.isNoExec( new File( "/tmp/a/libfoo.so" ), ms ) );
+		assertFalse( InPlace.isNoExec( new File( "/tmp/exec/libfoo.so" ),
+									   ms ) );
+		assertTrue( InPlace.isNoExec( new File( "/mnt/my disk/libfoo.so" ),
+									  ms ) );
+		assertFalse( InPlace.isNoExec( new File( "/tmpx/libfoo.so" ), ms ) );
+		assertFalse( InPlace.isNoExec( new File( "/home/libfoo.so" ), ms ) );
+	}
+
+	static private List<InPlace.Mount> mounts() {
+		return InPlace.parse
+			( Arrays.asList
+			  ( "22 1 8:1 / / rw,relatime shared:1 - ext4 /dev/sda1 rw",
+				"35 22 0:30 / /tmp rw,nosuid,nodev,noexec - tmpfs tmpfs rw",
+				"36 22 0:31 / /mnt/my\\040disk ro,noexec - ext4 /dev/sdb1 ro",
+				"37 35 0:32 / /tmp/exec rw - tmpfs tmpfs rw",
+				"short line" ) );
+	}
+}
+
+// eof
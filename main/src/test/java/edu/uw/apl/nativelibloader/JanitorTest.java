@@ -0,0 +1,120 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+public class JanitorTest extends junit.framework.TestCase {
+
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory( "janitor" ).toFile();
+	}
+
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testSweep() throws IOException {
+		long now = System.currentTimeMillis();
+		long old = now - 2 * 60 * 60 * 1000L;
+
+		String live = UUID.randomUUID().toString();
+		lease( live, Janitor.pid );
+		File liveFile = touch( NAME + "-" + live + "-1", now );
+
+		// No process has such a pid
+		String dead = UUID.randomUUID().toString();
+		File deadLease = lease( dead, Integer.MAX_VALUE );
+		File deadFile = touch( NAME + "-" + dead + "-1", now );
+
+		String unleased = UUID.randomUUID().toString();
+		File unleasedNew = touch( NAME + "-" + unleased + "-1", now );
+		File unleasedOld = touch( NAME + "-" + unleased + "-2", old );
+
+		File legacy = touch( NAME + "-" + UUID.randomUUID(), old );
+		File foreign = touch( "other-" + UUID.randomUUID(), old );
+
+		assertEquals( 4, Janitor.sweep( dir, now - 1000, 100 ) );
+		assertTrue( liveFile.exists() );
+		assertFalse( deadFile.exists() );
+		assertFalse( deadLease.exists() );
+		assertTrue( unleasedNew.exists() );
+		assertFalse( unleasedOld.exists() );
+		assertFalse( legacy.exists() );
+		assertTrue( foreign.exists() );
+	}
+
+	public void testLimit() throws IOException {
+		long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000L;
+		for( int i = 0; i < 5; i++ )
+			touch( NAME + "-" + UUID.randomUUID(), old );
+		assertEquals( 2, Janitor.sweep( dir, old + 1000, 2 ) );
+		assertEquals( 3, dir.list().length );
+	}
+
+	public void testNewFile() throws IOException {
+		File f = Janitor.newFile( dir, NAME );
+		assertTrue( Janitor.OURS.matcher( f.getName() ).matches() );
+		assertTrue( new File( dir, ".nativeloader-" + Janitor.session +
+							  ".lease" ).exists() );
+		assertEquals( Boolean.TRUE, Janitor.isAlive( Janitor.pid ) );
+	}
+
+	private File lease( String session, long pid ) throws IOException {
+		File f = new File( dir, ".nativeloader-" + session + ".lease" );
+		Files.write( f.toPath(),
+					 ("" + pid).getBytes( StandardCharsets.UTF_8 ) );
+		return f;
+	}
+
+	private File touch( String name, long mtime ) throws IOException {
+		File f = new File( dir, name );
+		f.createNewFile();
+		f.setLastModified( mtime );
+		return f;
+	}
+
+	private File dir;
+
+	static private final String NAME =
+		"com.foo.native.Linux.x86_64.libfoo.so";
+}
+
+// eof
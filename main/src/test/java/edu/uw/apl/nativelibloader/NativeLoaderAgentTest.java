@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+public class NativeLoaderAgentTest extends junit.framework.TestCase {
+
+	public void testParse() throws Exception {
+		Map<String,Set<String>> m = NativeLoaderAgent.parse
+			( "com.foo:bar, com.foo:baz,org.x:y" );
+		assertEquals( 2, m.size() );
+		assertEquals( 2, m.get( "com.foo" ).size() );
+		assertTrue( m.get( "org.x" ).contains( "y" ) );
+		try {
+			NativeLoaderAgent.parse( "com.foo" );
+			fail();
+		} catch( IllegalArgumentException iae ) {
+		}
+	}
+
+	/**
+	   Our test resources bundle 'artifact' for Linux (x86, x86_64)
+	   and Mac, so on those platforms a scan finds it.
+	*/
+	public void testScan() throws Exception {
+		File classes = new File( "target/test-classes" );
+		Map<String,Set<String>> m = NativeLoaderAgent.scan
+			( Collections.singletonList( classes ) );
+		String prefix = NativeLoader.class.getPackage().getName();
+		String folder = OSInfo.getNativeLibFolderPathForCurrentOS();
+		File lib = new File( classes, prefix.replace( '.', '/' ) +
+							 "/native/" + folder );
+		if( !lib.isDirectory() )
+			return;
+		assertTrue( m.get( prefix ).contains( "artifact" ) );
+		// The index.properties is no library
+		assertNull( m.get( prefix + ".indexed" ) );
+	}
+
+	public void testStart() throws Exception {
+		System.setProperty( "hello.agentWorld.disabled", "true" );
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoaderAgent.start( "hello:agentWorld" ).get();
+			assertTrue( NativeLoader.library( "hello", "agentWorld" ).loaded );
+		} finally {
+			System.clearProperty( "hello.agentWorld.disabled" );
+			NativeLoader.refreshConfiguration();
+		}
+	}
+
+	// A malformed argument is logged, not thrown into the future
+	public void testStartMalformed() throws Exception {
+		NativeLoaderAgent.start( "=com.foo" ).get();
+	}
+}
+
+// eof
@@ -33,7 +33,27 @@
  */
 package edu.uw.apl.nativelibloader;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.commons.io.FileUtils;
 
 public class NativeLoaderTest extends junit.framework.TestCase {
 
@@ -54,6 +74,322 @@ public class NativeLoaderTest extends junit.framework.TestCase {
 		}
 	}
 
+	/**
+	   With the 'cache' key defined, the extracted file is named by
+	   its content digest and a second load reuses it, rather than
+	   writing a new copy.  The test prefix has no index, so a
+	   reference file records that digest.
+	*/
+	public void testCached() throws IOException {
+		String prefix = NativeLoader.class.getPackage().getName();
+		File cacheDir = new File( System.getProperty( "java.io.tmpdir" ),
+								  "nativeloader-test-" + UUID.randomUUID() );
+		System.setProperty( prefix + ".artifact.cache", "true" );
+		System.setProperty( prefix + ".artifact.path", cacheDir.getPath() );
+		NativeLoader.refreshConfiguration();
+		try {
+			for( int i = 0; i < 2; i++ ) {
+				try {
+					NativeLoader.load( prefix, "artifact" );
+					fail();
+				} catch( UnsatisfiedLinkError ule ) {
+				}
+				// Bar the (hidden) extraction lock
+				File[] fs = cacheDir.listFiles
+					( f -> !f.getName().startsWith( "." ) );
+				assertEquals( 1, fs.length );
+				assertTrue( fs[0].getName().endsWith
+							( "-" + ExtractionCache.digest( fs[0] ) ) );
+			}
+			assertEquals( 1, cacheDir.listFiles
+						  ( f -> f.getName().endsWith( ".ref" ) ).length );
+		} finally {
+			System.clearProperty( prefix + ".artifact.cache" );
+			System.clearProperty( prefix + ".artifact.path" );
+			NativeLoader.refreshConfiguration();
+			FileUtils.deleteDirectory( cacheDir );
+		}
+	}
+
+	/**
+	   A configured 'path' directory which does not yet exist is
+	   created on first extraction, so the load gets as far as the
+	   link step.
+	*/
+	public void testMissingPath() throws IOException {
+		String prefix = NativeLoader.class.getPackage().getName();
+		File dir = new File( System.getProperty( "java.io.tmpdir" ),
+							 "nativeloader-test-" + UUID.randomUUID() +
+							 "/not/yet" );
+		System.setProperty( prefix + ".artifact.path", dir.getPath() );
+		System.setProperty( prefix + ".artifact.alwaysExtract", "true" );
+		NativeLoader.refreshConfiguration();
+		try {
+			try {
+				NativeLoader.load( prefix, "artifact" );
+				fail();
+			} catch( UnsatisfiedLinkError ule ) {
+			}
+			assertTrue( dir.isDirectory() );
+		} finally {
+			System.clearProperty( prefix + ".artifact.path" );
+			System.clearProperty( prefix + ".artifact.alwaysExtract" );
+			NativeLoader.refreshConfiguration();
+			// Quietly, a sweep of dir may be under way
+			FileUtils.deleteQuietly( dir.getParentFile().getParentFile() );
+		}
+	}
+
+	public void testAsyncBogusButPresent() throws InterruptedException {
+		String prefix = NativeLoader.class.getPackage().getName();
+		try {
+			NativeLoader.loadAsync( prefix, "artifact" ).get();
+			fail();
+		} catch( ExecutionException ee ) {
+			assertTrue( ee.getCause() instanceof UnsatisfiedLinkError );
+		}
+	}
+
+	/**
+	   A disabled library 'loads' without error, and is then marked
+	   loaded, so later requests complete immediately.  A missing
+	   library fails the whole loadAll.
+	*/
+	public void testLoadAll() throws InterruptedException {
+		System.setProperty( "hello.disabledWorld.disabled", "true" );
+		ExecutorService es = Executors.newFixedThreadPool( 2 );
+		try {
+			NativeLoader.loadAll( es, "hello", "disabledWorld" ).get();
+			assertTrue( NativeLoader.loadAsync( "hello", "disabledWorld" ).
+						isDone() );
+			try {
+				NativeLoader.loadAll( es, "hello",
+									  "disabledWorld", "world" ).get();
+				fail();
+			} catch( ExecutionException ee ) {
+				assertTrue( ee.getCause() instanceof IllegalStateException );
+			}
+		} catch( ExecutionException ee ) {
+			fail( "" + ee );
+		} finally {
+			es.shutdown();
+			System.clearProperty( "hello.disabledWorld.disabled" );
+		}
+	}
+
+	/**
+	   Many threads racing to load the same library all succeed, and
+	   the one registry entry ends up loaded.
+	*/
+	public void testConcurrentLoad() throws Exception {
+		System.setProperty( "hello.racyWorld.disabled", "true" );
+		ExecutorService es = Executors.newFixedThreadPool( 8 );
+		try {
+			List<Future<?>> fs = new ArrayList<Future<?>>();
+			for( int i = 0; i < 32; i++ )
+				fs.add( es.submit( new Callable<Void>() {
+						public Void call() throws IOException {
+							NativeLoader.load( "hello", "racyWorld" );
+							return null;
+						}
+					} ) );
+			for( Future<?> f : fs )
+				f.get();
+			Library library = NativeLoader.library( "hello", "racyWorld" );
+			assertTrue( library.loaded );
+			assertSame( library, NativeLoader.library( "hello", "racyWorld" ) );
+		} finally {
+			es.shutdown();
+			System.clearProperty( "hello.racyWorld.disabled" );
+		}
+	}
+
+	/**
+	   Settings are compiled once per library, so a property set
+	   afterwards is seen only after a refresh.
+	*/
+	public void testConfiguration() throws IOException {
+		Configuration c = Configuration.of( "hello", "staleWorld" );
+		assertFalse( c.disabled );
+		assertSame( c, Configuration.of( "hello", "staleWorld" ) );
+		System.setProperty( "hello.staleWorld.disabled", "true" );
+		try {
+			assertFalse( Configuration.of( "hello", "staleWorld" ).disabled );
+			NativeLoader.refreshConfiguration();
+			assertTrue( Configuration.of( "hello", "staleWorld" ).disabled );
+		} finally {
+			System.clearProperty( "hello.staleWorld.disabled" );
+			NativeLoader.refreshConfiguration();
+		}
+		assertEquals( "COM_FOO_BAR_USE_EXTERNAL",
+					  Configuration.envName( "com.foo.bar.useExternal" ) );
+	}
+
+	/**
+	   A load shows up in the MXBean, once asked for, and as a JFR
+	   event in a recording.
+	*/
+	public void testMonitoring() throws Exception {
+		System.setProperty( "hello.monitoredWorld.disabled", "true" );
+		System.setProperty( Monitoring.JMXPROPERTY, "true" );
+		Recording r = new Recording();
+		r.enable( "edu.uw.apl.nativelibloader.Load" );
+		r.start();
+		try {
+			NativeLoader.load( "hello", "monitoredWorld" );
+		} finally {
+			r.stop();
+			System.clearProperty( "hello.monitoredWorld.disabled" );
+			System.clearProperty( Monitoring.JMXPROPERTY );
+		}
+
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName( NativeLoaderMXBean.OBJECTNAME );
+		assertTrue( ((Integer)mbs.getAttribute( on, "LoadedCount" )) > 0 );
+		boolean found = false;
+		for( CompositeData cd :
+				 (CompositeData[])mbs.getAttribute( on, "Libraries" ) )
+			if( "monitoredWorld".equals( cd.get( "libName" ) ) ) {
+				found = true;
+				assertNull( cd.get( "path" ) );
+				assertTrue( (Long)cd.get( "configNanos" ) > 0 );
+			}
+		assertTrue( found );
+
+		File jfr = File.createTempFile( "nativeloader", ".jfr" );
+		try {
+			r.dump( jfr.toPath() );
+			found = false;
+			for( RecordedEvent e : RecordingFile.readAllEvents
+					 ( jfr.toPath() ) )
+				if( "monitoredWorld".equals( e.getString( "libName" ) ) )
+					found = true;
+			assertTrue( found );
+		} finally {
+			r.close();
+			jfr.delete();
+		}
+	}
+
+	/**
+	   Two prefixes bundle (and index) the same bytes.  The second
+	   load finds the first's extraction and links to it, rather than
+	   extracting again.  Our canned payloads are for Linux/x86_64.
+	*/
+	public void testDedup() throws IOException {
+		if( !OSInfo.getNativeLibFolderPathsForCurrentOS().contains
+			( "Linux/x86_64" ) )
+			return;
+		String prefix = NativeLoader.class.getPackage().getName();
+		long hits = Payloads.hits();
+		for( String p : new String[] { prefix + ".dedupa",
+									   prefix + ".dedupb" } ) {
+			try {
+				NativeLoader.load( p, "dup" );
+				fail();
+			} catch( UnsatisfiedLinkError ule ) {
+			}
+		}
+		assertEquals( hits + 1, Payloads.hits() );
+		assertTrue( Payloads.bytesSaved() > 0 );
+	}
+
+	/**
+	   A library not found is not looked for again, for a while: the
+	   original exception is thrown again instead.
+	*/
+	public void testMissingRemembered() throws IOException {
+		IllegalStateException first = null;
+		for( int i = 0; i < 2; i++ ) {
+			try {
+				NativeLoader.load( "hello", "forgetfulWorld" );
+				fail();
+			} catch( IllegalStateException ise ) {
+				if( first == null )
+					first = ise;
+				else
+					assertSame( first, ise );
+			}
+		}
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoader.load( "hello", "forgetfulWorld" );
+			fail();
+		} catch( IllegalStateException ise ) {
+			assertNotSame( first, ise );
+			assertEquals( first.getMessage(), ise.getMessage() );
+		}
+	}
+
+	/**
+	   Not bundled, but found in a configured system directory: a
+	   copy (the VM has the original loaded already) of its libzip.
+	*/
+	public void testResolveSystem() throws IOException {
+		File zip = new File( System.getProperty( "java.home" ),
+							 "lib/" + System.mapLibraryName( "zip" ) );
+		if( !zip.isFile() )
+			return;
+		File dir = new File( System.getProperty( "java.io.tmpdir" ),
+							 "nativeloader-test-" + UUID.randomUUID() );
+		File copy = new File( dir, System.mapLibraryName( "zipcopy" ) );
+		FileUtils.copyFile( zip, copy );
+		System.setProperty( "hello.zipcopy.resolve",
+							"bundled,libpath,system" );
+		System.setProperty( "hello.zipcopy.systemDirs", dir.getPath() );
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoader.load( "hello", "zipcopy" );
+			Library library = NativeLoader.library( "hello", "zipcopy" );
+			assertEquals( copy.getAbsoluteFile(), library.file );
+			assertTrue( library.timings.lookup > 0 );
+		} finally {
+			System.clearProperty( "hello.zipcopy.resolve" );
+			System.clearProperty( "hello.zipcopy.systemDirs" );
+			NativeLoader.refreshConfiguration();
+			FileUtils.deleteDirectory( dir );
+		}
+	}
+
+	/**
+	   A bundled library already a plain, executable file, as from
+	   an exploded classpath, is loaded where it lies.  Here a copy
+	   of the VM's libzip, placed in target/test-classes.  Unless
+	   'alwaysExtract' is defined.
+	*/
+	public void testInPlace() throws IOException {
+		File zip = new File( System.getProperty( "java.home" ),
+							 "lib/" + System.mapLibraryName( "zip" ) );
+		if( !zip.isFile() )
+			return;
+		File dir = new File( "target/test-classes/hello/native/" +
+							 OSInfo.getNativeLibFolderPathForCurrentOS() );
+		File copyA = new File( dir, System.mapLibraryName( "zipInPlace" ) );
+		File copyB = new File( dir, System.mapLibraryName( "zipExtracted" ) );
+		FileUtils.copyFile( zip, copyA );
+		FileUtils.copyFile( zip, copyB );
+		copyA.setExecutable( true );
+		copyB.setExecutable( true );
+		System.setProperty( "hello.zipExtracted.alwaysExtract", "true" );
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoader.load( "hello", "zipInPlace" );
+			Library library = NativeLoader.library( "hello", "zipInPlace" );
+			assertEquals( copyA.getCanonicalFile(), library.file );
+			assertEquals( 0, library.timings.bytes );
+
+			NativeLoader.load( "hello", "zipExtracted" );
+			library = NativeLoader.library( "hello", "zipExtracted" );
+			assertFalse( copyB.getCanonicalFile().equals( library.file ) );
+			assertEquals( zip.length(), library.timings.bytes );
+		} finally {
+			System.clearProperty( "hello.zipExtracted.alwaysExtract" );
+			NativeLoader.refreshConfiguration();
+			copyA.delete();
+			copyB.delete();
+		}
+	}
+
 	public void testMissing() {
 		String thisPackageIsNotHere = "hello";
 		String thisArtifactIsNotHere = "world";
@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+public class NativeManifestTest extends junit.framework.TestCase {
+
+	/**
+	   Scan a native/ tree, write the index, read it back.
+	*/
+	public void testScanStoreLoad() throws IOException {
+		File dir = File.createTempFile( "manifest", "" );
+		dir.delete();
+		try {
+			File plain = new File( dir, "Linux/x86_64/libfoo.so" );
+			FileUtils.writeStringToFile( plain, "foo\n" );
+			File gz = new File( dir, "Linux/aarch64/libfoo.so.gz" );
+			gz.getParentFile().mkdirs();
+			GZIPOutputStream gzos = new GZIPOutputStream
+				( FileUtils.openOutputStream( gz ) );
+			gzos.write( "foo\n".getBytes( "US-ASCII" ) );
+			gzos.close();
+
+			NativeManifest m = NativeManifest.scan( dir );
+			assertEquals( 2, m.entries().size() );
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			m.store( baos );
+			Properties p = new Properties();
+			p.load( new ByteArrayInputStream( baos.toByteArray() ) );
+			NativeManifest m2 = NativeManifest.fromProperties( p );
+
+			NativeManifest.Entry e = m2.find( "Linux/x86_64", "libfoo.so" );
+			assertEquals( 4, e.getSize() );
+			assertEquals( ExtractionCache.digest( plain ), e.getSha256() );
+			assertEquals( e.getSha256(), e.getUncompressedSha256() );
+
+			e = m2.find( "Linux/aarch64", "libfoo.so" );
+			assertEquals( "Linux/aarch64/libfoo.so.gz", e.getPath() );
+			assertEquals( Compression.GZIP, e.compression );
+			assertEquals( 4, e.getUncompressedSize() );
+			assertEquals( ExtractionCache.digest( plain ),
+						  e.getUncompressedSha256() );
+			assertNull( m2.find( "Mac/x86_64", "libfoo.so" ) );
+		} finally {
+			FileUtils.deleteDirectory( dir );
+		}
+	}
+
+	/**
+	   Two classpath elements each bundle an index for the one prefix,
+	   as do per-platform jars.  Both are read, the first winning
+	   where they overlap.
+	*/
+	public void testMerge() throws IOException {
+		File dir = File.createTempFile( "manifest", "" );
+		dir.delete();
+		try {
+			File a = new File( dir, "a" );
+			File b = new File( dir, "b" );
+			FileUtils.writeStringToFile
+				( new File( a, "foo/native/Linux/x86_64/libfoo.so" ), "a" );
+			FileUtils.writeStringToFile
+				( new File( b, "foo/native/Linux/x86_64/libfoo.so" ), "bb" );
+			FileUtils.writeStringToFile
+				( new File( b, "foo/native/Mac/x86_64/libfoo.dylib" ), "b" );
+			NativeManifest.scan( new File( a, "foo/native" ) ).store
+				( new File( a, "foo/native/" + NativeManifest.RESOURCENAME ) );
+			NativeManifest.scan( new File( b, "foo/native" ) ).store
+				( new File( b, "foo/native/" + NativeManifest.RESOURCENAME ) );
+
+			URLClassLoader cl = new URLClassLoader
+				( new URL[] { a.toURI().toURL(), b.toURI().toURL() }, null );
+			NativeManifest m = NativeManifest.load( cl, "foo" );
+			assertEquals( 2, m.entries().size() );
+			assertEquals( 1, m.find( "Linux/x86_64", "libfoo.so" ).getSize() );
+			assertNotNull( m.find( "Mac/x86_64", "libfoo.dylib" ) );
+			assertEquals( 0, NativeManifest.load( cl, "bar" ).entries().size() );
+		} finally {
+			FileUtils.deleteDirectory( dir );
+		}
+	}
+
+	/**
+	   The test prefix 'indexed' bundles an index, but no library for
+	   this platform.  Nor does probing find one.
+	*/
+	public void testIndexedMissing() throws IOException {
+		String prefix = NativeLoader.class.getPackage().getName() +
+			".indexed";
+		assertNotNull( NativeManifest.forPrefix( prefix ) );
+		try {
+			NativeLoader.load( prefix, "artifact" );
+			fail();
+		} catch( IllegalStateException ise ) {
+			// Expected
+		}
+	}
+}
+
+// eof
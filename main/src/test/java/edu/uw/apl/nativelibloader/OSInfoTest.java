@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class OSInfoTest extends junit.framework.TestCase {
+
+	public void testFolders() {
+		List<String> folders = OSInfo.getNativeLibFolderPathsForCurrentOS();
+		assertFalse( folders.isEmpty() );
+		// Not the musl folder, even on musl
+		assertEquals( OSInfo.getOSName() + "/" + OSInfo.getArchName(),
+					  OSInfo.getNativeLibFolderPathForCurrentOS() );
+		assertEquals( OSInfo.getNativeLibFolderPathForCurrentOS(),
+					  folders.get( folders.size() - 1 ) );
+		// Memoized, so the very same list every time
+		assertSame( folders, OSInfo.getNativeLibFolderPathsForCurrentOS() );
+	}
+
+	public void testLevels() {
+		Set<String> flags = new HashSet<String>();
+		assertEquals( 1, CpuFeatures.level( flags ) );
+		flags.addAll( Arrays.asList( "cx16", "lahf_lm", "popcnt", "sse4_1",
+									 "sse4_2", "ssse3", "avx", "avx2" ) );
+		assertEquals( 2, CpuFeatures.level( flags ) );
+		flags.addAll( Arrays.asList( "bmi1", "bmi2", "f16c", "fma", "abm",
+									 "movbe", "xsave" ) );
+		assertEquals( 3, CpuFeatures.level( flags ) );
+		// v4 features without v3 ones count for nothing
+		flags.remove( "fma" );
+		flags.addAll( Arrays.asList( "avx512f", "avx512bw", "avx512cd",
+									 "avx512dq", "avx512vl" ) );
+		assertEquals( 2, CpuFeatures.level( flags ) );
+	}
+
+	public void testVariants() {
+		List<String> variants = OSInfo.getArchVariants();
+		assertEquals( OSInfo.getArchName(),
+					  variants.get( variants.size() - 1 ) );
+		List<String> pinned =
+			OSInfo.getNativeLibFolderPathsForCurrentOS( "baseline" );
+		assertEquals( OSInfo.getNativeLibFolderPathForCurrentOS(),
+					  pinned.get( pinned.size() - 1 ) );
+		assertEquals( pinned, OSInfo.getNativeLibFolderPathsForCurrentOS
+					  ( OSInfo.getArchName() ) );
+		pinned = OSInfo.getNativeLibFolderPathsForCurrentOS( "v3" );
+		assertTrue( pinned.get( pinned.size() - 1 ).endsWith
+					( OSInfo.getArchName() + "-v3" ) );
+	}
+
+	/**
+	   Our pure-Java ELF reading, against the running VM itself.
+	*/
+	public void testElfSelf() throws IOException {
+		File exe = new File( "/proc/self/exe" );
+		if( !exe.exists() )
+			return;
+		ElfFile elf = ElfFile.open( exe );
+		try {
+			String interpreter = elf.interpreter();
+			assertNotNull( interpreter );
+			assertEquals( interpreter.contains( "musl" ), OSInfo.isMusl() );
+			if( OSInfo.getArchName().equals( OSInfo.X86_64 ) ) {
+				assertTrue( elf.is64() );
+				assertEquals( 62, elf.machine() );	// EM_X86_64
+			}
+		} finally {
+			elf.close();
+		}
+	}
+}
+
+// eof
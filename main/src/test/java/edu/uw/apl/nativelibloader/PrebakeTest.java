@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+public class PrebakeTest extends junit.framework.TestCase {
+
+	protected void setUp() {
+		dir = new File( System.getProperty( "java.io.tmpdir" ),
+						"nativeloader-test-" + UUID.randomUUID() );
+	}
+
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testList() {
+		Set<String> s = Prebake.list( classes );
+		String base = NativeLoader.class.getPackage().getName().
+			replace( '.', '/' );
+		assertTrue( s.contains( base + "/native/Mac/x86_64/libartifact.jnilib" ) );
+		assertTrue( s.contains( base + "/dedupa/native/Linux/x86_64/libdup.so.gz" ) );
+		assertFalse( s.contains( base + "/dedupa/native/index.properties" ) );
+	}
+
+	/**
+	   Extract, verify, then damage an entry: verify must notice.
+	   And a load configured as the pre-bake was finds the entry
+	   already extracted, in place.
+	*/
+	public void testExtractVerify() throws IOException {
+		String prefix = NativeLoader.class.getPackage().getName() + ".dedupa";
+		File lib = new File( "target/test-classes", prefix.replace( '.', '/' ) +
+							 "/native/" +
+							 OSInfo.getNativeLibFolderPathForCurrentOS() );
+		if( !lib.isDirectory() )
+			return;
+		PrintStream out = new PrintStream( new ByteArrayOutputStream() );
+		assertTrue( Prebake.extract( dir, classes, out ) );
+		assertNull( System.getProperty( prefix + ".cache" ) );
+		assertTrue( Prebake.verify( dir, out ) );
+
+		File record = new File( dir, Prebake.RECORD );
+		String line = FileUtils.readLines( record, "UTF-8" ).get( 0 );
+		File entry = new File( dir, line.split( " " )[2] );
+		long lastModified = entry.lastModified();
+
+		System.setProperty( prefix + ".cache", "true" );
+		System.setProperty( prefix + ".path", dir.getPath() );
+		NativeLoader.refreshConfiguration();
+		try {
+			NativeLoader.Linkage l = NativeLoader.prepare
+				( prefix, "dup", new LoadTimings() );
+			assertEquals( dir.getCanonicalFile(),
+						  l.file.getParentFile().getCanonicalFile() );
+			assertEquals( lastModified, entry.lastModified() );
+		} finally {
+			System.clearProperty( prefix + ".cache" );
+			System.clearProperty( prefix + ".path" );
+			NativeLoader.refreshConfiguration();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile( entry, "rw" );
+		try {
+			int b = raf.read();
+			raf.seek( 0 );
+			raf.write( b ^ 0xff );
+		} finally {
+			raf.close();
+		}
+		assertFalse( Prebake.verify( dir, out ) );
+	}
+
+	public void testVerifyMissing() throws IOException {
+		PrintStream out = new PrintStream( new ByteArrayOutputStream() );
+		assertFalse( Prebake.verify( dir, out ) );
+	}
+
+	// A record line with a bad size is reported, not thrown
+	public void testVerifyMalformed() throws IOException {
+		FileUtils.writeStringToFile( new File( dir, Prebake.RECORD ),
+									 "0123abcd big libfoo.so\n", "UTF-8" );
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertFalse( Prebake.verify( dir, new PrintStream( bytes ) ) );
+		assertTrue( bytes.toString().startsWith( "Malformed: " ) );
+	}
+
+	private final List<File> classes =
+		Collections.singletonList( new File( "target/test-classes" ) );
+
+	private File dir;
+}
+
+// eof
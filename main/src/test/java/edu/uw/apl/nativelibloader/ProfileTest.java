@@ -0,0 +1,124 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.io.FileUtils;
+
+public class ProfileTest extends junit.framework.TestCase {
+
+	protected void setUp() throws IOException {
+		dir = new File( System.getProperty( "java.io.tmpdir" ),
+						"nativeloader-test-" + UUID.randomUUID() );
+		dir.mkdirs();
+	}
+
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( dir );
+	}
+
+	public void testRead() throws IOException {
+		File f = write( "# comment",
+						"12 hello world",
+						"malformed",
+						"15 hello world",
+						"20 other lib" );
+		List<String[]> entries = Profile.read( f );
+		assertEquals( 2, entries.size() );
+		assertEquals( "hello", entries.get(0)[0] );
+		assertEquals( "world", entries.get(0)[1] );
+		assertEquals( "other", entries.get(1)[0] );
+	}
+
+	/**
+	   Replay prepares each library listed, which the load then just
+	   links.  A stale entry, for a library no longer found, fails
+	   quietly: its load proceeds, and fails, as if never profiled.
+	*/
+	public void testReplay() throws Exception {
+		File zip = new File( System.getProperty( "java.home" ),
+							 "lib/" + System.mapLibraryName( "zip" ) );
+		if( !zip.isFile() )
+			return;
+		FileUtils.copyFile( zip, new File
+							( dir, System.mapLibraryName( "zipprofiled" ) ) );
+		System.setProperty( "hello.zipprofiled.resolve", "system" );
+		System.setProperty( "hello.zipprofiled.systemDirs", dir.getPath() );
+		NativeLoader.refreshConfiguration();
+		try {
+			Profile.replay( write( "5 hello zipprofiled",
+								   "9 hello staleWorld" ) );
+			Library profiled = NativeLoader.library( "hello", "zipprofiled" );
+			Library stale = NativeLoader.library( "hello", "staleWorld" );
+			CompletableFuture<?> f = profiled.prefetch.get();
+			assertNotNull( f );
+			assertNotNull( f.get() );
+			assertNotNull( stale.prefetch.get() );
+			assertFalse( profiled.loaded );
+
+			NativeLoader.load( "hello", "zipprofiled" );
+			assertTrue( profiled.loaded );
+			assertNull( profiled.prefetch.get() );
+			try {
+				NativeLoader.load( "hello", "staleWorld" );
+				fail();
+			} catch( IllegalStateException ise ) {
+				// Expected
+			}
+			assertNull( stale.prefetch.get() );
+		} finally {
+			System.clearProperty( "hello.zipprofiled.resolve" );
+			System.clearProperty( "hello.zipprofiled.systemDirs" );
+			NativeLoader.refreshConfiguration();
+		}
+	}
+
+	private File write( String... lines ) throws IOException {
+		File f = new File( dir, "profile" );
+		Files.write( f.toPath(), String.join( "\n", lines ).
+					 getBytes( StandardCharsets.UTF_8 ) );
+		return f;
+	}
+
+	private File dir;
+}
+
+// eof
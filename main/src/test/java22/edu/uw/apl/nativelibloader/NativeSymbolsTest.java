@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.SymbolLookup;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+public class NativeSymbolsTest extends junit.framework.TestCase {
+
+	/**
+	   Repeated lookups of one library extract it once, while its
+	   file remains.  Lost, it is extracted again.  A copy of the
+	   VM's libzip stands in for a bundled library.
+	*/
+	public void testReuse() throws IOException {
+		File zip = new File( System.getProperty( "java.home" ),
+							 "lib/" + System.mapLibraryName( "zip" ) );
+		if( !zip.isFile() )
+			return;
+		File dir = new File( "target/test-classes/hello/native/" +
+							 OSInfo.getNativeLibFolderPathForCurrentOS() );
+		File res = new File( dir, System.mapLibraryName( "zipSymbols" ) );
+		File tmpDir = new File( System.getProperty( "java.io.tmpdir" ),
+								"nativeloader-test-" + UUID.randomUUID() );
+		FileUtils.copyFile( zip, res );
+		System.setProperty( "hello.zipSymbols.alwaysExtract", "true" );
+		System.setProperty( "hello.zipSymbols.path", tmpDir.getPath() );
+		NativeLoader.refreshConfiguration();
+		try( Arena arena = Arena.ofConfined() ) {
+			for( int i = 0; i < 3; i++ ) {
+				SymbolLookup sl = NativeSymbols.lookup( "hello", "zipSymbols",
+														arena );
+				assertNotNull( sl );
+			}
+			File[] fs = extracted( tmpDir );
+			assertEquals( 1, fs.length );
+
+			assertTrue( fs[0].delete() );
+			NativeSymbols.lookup( "hello", "zipSymbols", arena );
+			fs = extracted( tmpDir );
+			assertEquals( 1, fs.length );
+		} finally {
+			System.clearProperty( "hello.zipSymbols.alwaysExtract" );
+			System.clearProperty( "hello.zipSymbols.path" );
+			NativeLoader.refreshConfiguration();
+			res.delete();
+			// Quietly, a sweep of tmpDir may be under way
+			FileUtils.deleteQuietly( tmpDir );
+		}
+	}
+
+	// Bar the Janitor's lease and such
+	static private File[] extracted( File dir ) {
+		return dir.listFiles( f -> !f.getName().startsWith( "." ) );
+	}
+}
+
+// eof
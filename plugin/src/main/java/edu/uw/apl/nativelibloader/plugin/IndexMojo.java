@@ -0,0 +1,107 @@
+/**
+ * Copyright © 2015, University of Washington
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the University of Washington nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UNIVERSITY OF WASHINGTON BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * --------------------------------------------------------------------------------
+ *
+ * The source code in this codebase is inspired, and in some cases
+ * directly re-implemented from, the Snappy Java project at
+ * https://github.com/xerial/snappy-java.  The LICENSE for that work is
+ * included [here] (./LICENSE.snappy-java)
+ */
+package edu.uw.apl.nativelibloader.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import edu.uw.apl.nativelibloader.NativeManifest;
+
+/**
+ * @author Stuart Maclean
+ *
+ * Write a NativeManifest index for each prefix whose native
+ * libraries are bundled in this build, i.e. for every directory
+ *
+ * target/classes/com/foo/bar/native/
+ *
+ * write target/classes/com/foo/bar/native/index.properties.  With
+ * the index in the jar, the NativeLoader reads that one resource
+ * rather than probing the classpath for each candidate library name.
+ *
+ * Bound by default to process-classes, so runs after resources
+ * (including any libraries built by a 'native' profile) are in place.
+ */
+@Mojo( name = "index", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+	   threadSafe = true )
+public class IndexMojo extends AbstractMojo {
+
+	public void execute() throws MojoExecutionException {
+		if( !outputDirectory.isDirectory() ) {
+			getLog().info( "No " + outputDirectory + ", nothing to index" );
+			return;
+		}
+		try {
+			index( outputDirectory );
+		} catch( IOException ioe ) {
+			throw new MojoExecutionException( "Indexing failed", ioe );
+		}
+	}
+
+	private void index( File dir ) throws IOException {
+		File[] fs = dir.listFiles();
+		if( fs == null )
+			return;
+		for( File f : fs ) {
+			if( !f.isDirectory() )
+				continue;
+			if( f.getName().equals( "native" ) ) {
+				NativeManifest m = NativeManifest.scan( f );
+				if( m.entries().isEmpty() )
+					continue;
+				File out = new File( f, NativeManifest.RESOURCENAME );
+				m.store( out );
+				getLog().info( "Indexed " + m.entries().size() +
+							   " native libraries: " + out );
+			} else {
+				index( f );
+			}
+		}
+	}
+
+	/**
+	 * The directory to search for PREFIX/native/ trees
+	 */
+	@Parameter( defaultValue = "${project.build.outputDirectory}",
+				required = true )
+	private File outputDirectory;
+}
+
+// eof